@@ -0,0 +1,266 @@
+package com.uber.okbuck.benchmark;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates a synthetic gradle multi-project to run okbuck on. Modules only depend on modules
+ * generated before them, so the project graph is acyclic. External dependencies are served from a
+ * generated local maven repository, every artifact being published in a few versions with
+ * transitive dependencies on other artifacts.
+ *
+ * <p>The generated project links to okbuck's buildSrc, so it applies the okbuck plugin of this
+ * checkout.
+ */
+public final class MegaRepoGenerator {
+
+  private static final String GROUP = "com.example.synthetic";
+  private static final String LOCAL_REPO = "local-repo";
+  private static final int EXTERNAL_VERSIONS = 2;
+  private static final int EXTERNAL_FAN_OUT = 2;
+
+  private final File okbuckRoot;
+  private final Options options;
+  private final Random random;
+
+  public MegaRepoGenerator(File okbuckRoot, Options options) {
+    this.okbuckRoot = okbuckRoot;
+    this.options = options;
+    this.random = new Random(options.seed);
+  }
+
+  /**
+   * Generates the project.
+   *
+   * @param modules The number of modules to generate
+   * @param dir The directory to generate the project in. Must not exist yet.
+   */
+  public void generate(int modules, File dir) throws IOException {
+    if (dir.exists()) {
+      throw new IllegalStateException("Output directory already exists: " + dir);
+    }
+    Path root = Files.createDirectories(dir.toPath());
+
+    Files.createSymbolicLink(
+        root.resolve("buildSrc"), new File(okbuckRoot, "buildSrc").getAbsoluteFile().toPath());
+    Files.copy(
+        new File(okbuckRoot, "dependencies.gradle").toPath(), root.resolve("dependencies.gradle"));
+    File localProperties = new File(okbuckRoot, "local.properties");
+    if (localProperties.isFile()) {
+      Files.copy(localProperties.toPath(), root.resolve("local.properties"));
+    }
+    write(root.resolve("gradle.properties"), "android.useAndroidX=true\n");
+
+    generateLocalRepo(root.resolve(LOCAL_REPO));
+
+    List<String> names = new ArrayList<>();
+    List<Integer> jvmModules = new ArrayList<>();
+    for (int i = 0; i < modules; i++) {
+      String name = String.format("m%05d", i);
+      boolean android = random.nextDouble() < options.androidRatio;
+
+      List<String> projectDeps = new ArrayList<>();
+      List<Integer> candidates = android ? range(i) : jvmModules;
+      for (int d = 0; d < options.fanOut && !candidates.isEmpty(); d++) {
+        String dep = names.get(candidates.get(random.nextInt(candidates.size())));
+        if (!projectDeps.contains(dep)) {
+          projectDeps.add(dep);
+        }
+      }
+
+      generateModule(root.resolve(name), name, android, projectDeps);
+      names.add(name);
+      if (!android) {
+        jvmModules.add(i);
+      }
+    }
+
+    StringBuilder settings = new StringBuilder();
+    names.forEach(name -> settings.append("include \":").append(name).append("\"\n"));
+    write(root.resolve("settings.gradle"), settings.toString());
+    write(root.resolve("build.gradle"), rootBuildFile());
+  }
+
+  private String rootBuildFile() {
+    return "buildscript {\n"
+        + "    apply from: rootProject.file(\"dependencies.gradle\")\n"
+        + "    repositories {\n"
+        + "        google()\n"
+        + "        mavenCentral()\n"
+        + "    }\n"
+        + "    dependencies {\n"
+        + "        classpath deps.build.androidPlugin\n"
+        + "    }\n"
+        + "}\n"
+        + "\n"
+        + "allprojects {\n"
+        + "    repositories {\n"
+        + "        maven { url rootProject.file(\""
+        + LOCAL_REPO
+        + "\") }\n"
+        + "        google()\n"
+        + "        mavenCentral()\n"
+        + "    }\n"
+        + "}\n"
+        + "\n"
+        + "apply plugin: \"com.uber.okbuck\"\n"
+        + "\n"
+        + "okbuck {\n"
+        + "    profile = true\n"
+        + "    externalDependencies {\n"
+        + "        resolutionAction = \"latest\"\n"
+        + "    }\n"
+        + "}\n";
+  }
+
+  private void generateModule(Path dir, String name, boolean android, List<String> projectDeps)
+      throws IOException {
+    String pkg = "com.example." + name;
+    StringBuilder build = new StringBuilder();
+    if (android) {
+      build
+          .append("apply plugin: \"com.android.library\"\n\n")
+          .append("android {\n")
+          .append("    compileSdkVersion deps.config.compileSdk\n")
+          .append("    buildToolsVersion deps.config.buildTools\n")
+          .append("    defaultConfig {\n")
+          .append("        minSdkVersion deps.config.minSdk\n")
+          .append("        targetSdkVersion deps.config.targetSdk\n")
+          .append("    }\n");
+      if (options.flavors > 0) {
+        build
+            .append("    flavorDimensions \"tier\"\n")
+            .append("    productFlavors {\n");
+        for (int f = 0; f < options.flavors; f++) {
+          build.append("        flavor").append(f).append(" { dimension \"tier\" }\n");
+        }
+        build.append("    }\n");
+      }
+      build.append("}\n\n");
+      write(
+          dir.resolve("src/main/AndroidManifest.xml"),
+          "<manifest package=\"" + pkg + "\" />\n");
+    } else {
+      build.append("apply plugin: \"java-library\"\n\n");
+    }
+
+    build.append("dependencies {\n");
+    projectDeps.forEach(
+        dep -> build.append("    implementation project(\":").append(dep).append("\")\n"));
+    for (int e = 0; e < options.externalsPerModule && options.externals > 0; e++) {
+      int artifact = random.nextInt(options.externals);
+      int version = random.nextInt(EXTERNAL_VERSIONS);
+      build
+          .append("    implementation \"")
+          .append(coordinates(artifact, version))
+          .append("\"\n");
+    }
+    build.append("}\n");
+    write(dir.resolve("build.gradle"), build.toString());
+
+    String className = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    write(
+        dir.resolve("src/main/java/com/example/" + name + "/" + className + ".java"),
+        "package " + pkg + ";\n\npublic class " + className + " {}\n");
+  }
+
+  private void generateLocalRepo(Path repo) throws IOException {
+    for (int artifact = 0; artifact < options.externals; artifact++) {
+      for (int version = 0; version < EXTERNAL_VERSIONS; version++) {
+        String artifactId = artifactId(artifact);
+        String versionName = versionName(version);
+        Path dir =
+            repo.resolve(GROUP.replace('.', '/')).resolve(artifactId).resolve(versionName);
+        String baseName = artifactId + "-" + versionName;
+
+        StringBuilder pom =
+            new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<project>\n")
+                .append("  <modelVersion>4.0.0</modelVersion>\n")
+                .append("  <groupId>" + GROUP + "</groupId>\n")
+                .append("  <artifactId>" + artifactId + "</artifactId>\n")
+                .append("  <version>" + versionName + "</version>\n")
+                .append("  <dependencies>\n");
+        for (int d = 0; d < EXTERNAL_FAN_OUT && artifact > 0; d++) {
+          pom.append("    <dependency>\n")
+              .append("      <groupId>" + GROUP + "</groupId>\n")
+              .append("      <artifactId>")
+              .append(artifactId(random.nextInt(artifact)))
+              .append("</artifactId>\n")
+              .append("      <version>" + versionName(random.nextInt(EXTERNAL_VERSIONS)))
+              .append("</version>\n")
+              .append("    </dependency>\n");
+        }
+        pom.append("  </dependencies>\n").append("</project>\n");
+        write(dir.resolve(baseName + ".pom"), pom.toString());
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.IMPLEMENTATION_TITLE, baseName);
+        try (OutputStream os = Files.newOutputStream(dir.resolve(baseName + ".jar"));
+            JarOutputStream jar = new JarOutputStream(os, manifest)) {
+          jar.flush();
+        }
+      }
+    }
+  }
+
+  private static String coordinates(int artifact, int version) {
+    return GROUP + ":" + artifactId(artifact) + ":" + versionName(version);
+  }
+
+  private static String artifactId(int artifact) {
+    return "ext" + artifact;
+  }
+
+  private static String versionName(int version) {
+    return "1." + version + ".0";
+  }
+
+  private static List<Integer> range(int end) {
+    List<Integer> range = new ArrayList<>(end);
+    for (int i = 0; i < end; i++) {
+      range.add(i);
+    }
+    return range;
+  }
+
+  private static void write(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+  }
+
+  /** Shape of the generated project. */
+  public static final class Options {
+
+    /** Project dependencies of each module. */
+    public int fanOut = 4;
+
+    /** Share of modules which are android libraries, the rest being java libraries. */
+    public double androidRatio = 0.5;
+
+    /** Product flavors of each android module. */
+    public int flavors = 0;
+
+    /** Artifacts published in the local maven repository. */
+    public int externals = 200;
+
+    /** External dependencies of each module. */
+    public int externalsPerModule = 3;
+
+    /** Seed of the random project graph, so a project can be generated again. */
+    public long seed = 42;
+  }
+}
@@ -0,0 +1,191 @@
+package com.uber.okbuck.benchmark;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.uber.okbuck.OkBuckGradlePlugin;
+import com.uber.okbuck.core.util.OkBuckProfiler;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs okbuck end to end on generated projects of growing size, recording wall time, peak heap and
+ * files written for each size. Results are written to {@code scaling.json} in the work directory.
+ *
+ * <p>Usage: {@code ./gradlew -p buildSrc okbuckScaling -Pscaling.args="--modules=100,1000"}.
+ * Options are {@code --modules}, {@code --fanOut}, {@code --androidRatio}, {@code --flavors},
+ * {@code --externals}, {@code --externalsPerModule}, {@code --seed}, {@code --workDir} and {@code
+ * --offline}. Gradle dependencies of the generated project must already be cached to run offline.
+ */
+public final class ScalingBenchmark {
+
+  private static final List<Integer> DEFAULT_MODULES = Arrays.asList(100, 500, 1000, 2500, 5000);
+  private static final String RESULTS_FILE = "scaling.json";
+
+  private ScalingBenchmark() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    File okbuckRoot = new File(System.getProperty("okbuck.root", "..")).getCanonicalFile();
+    MegaRepoGenerator.Options options = new MegaRepoGenerator.Options();
+    List<Integer> modules = new ArrayList<>(DEFAULT_MODULES);
+    File workDir = new File(okbuckRoot, "build/okbuck-scaling");
+    boolean offline = false;
+
+    for (String arg : args) {
+      String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+      String value = parts.length > 1 ? parts[1] : "true";
+      switch (parts[0]) {
+        case "modules":
+          modules =
+              Arrays.stream(value.split(",")).map(Integer::valueOf).collect(Collectors.toList());
+          break;
+        case "fanOut":
+          options.fanOut = Integer.parseInt(value);
+          break;
+        case "androidRatio":
+          options.androidRatio = Double.parseDouble(value);
+          break;
+        case "flavors":
+          options.flavors = Integer.parseInt(value);
+          break;
+        case "externals":
+          options.externals = Integer.parseInt(value);
+          break;
+        case "externalsPerModule":
+          options.externalsPerModule = Integer.parseInt(value);
+          break;
+        case "seed":
+          options.seed = Long.parseLong(value);
+          break;
+        case "workDir":
+          workDir = new File(value).getAbsoluteFile();
+          break;
+        case "offline":
+          offline = Boolean.parseBoolean(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + arg);
+      }
+    }
+
+    List<Result> results = new ArrayList<>();
+    for (int size : modules) {
+      File projectDir = new File(workDir, "modules-" + size);
+      deleteRecursively(projectDir.toPath());
+      new MegaRepoGenerator(okbuckRoot, options).generate(size, projectDir);
+
+      Result result = run(okbuckRoot, projectDir, size, offline);
+      results.add(result);
+      System.out.println(
+          String.format(
+              "%6d modules: %8d ms, %6d MB peak heap, %7d files written",
+              result.modules,
+              result.wallTimeMs,
+              result.peakHeapBytes / (1024 * 1024),
+              result.filesWritten));
+    }
+
+    Files.createDirectories(workDir.toPath());
+    try (Writer writer = Files.newBufferedWriter(workDir.toPath().resolve(RESULTS_FILE), UTF_8)) {
+      new GsonBuilder().setPrettyPrinting().create().toJson(results, writer);
+    }
+  }
+
+  private static Result run(File okbuckRoot, File projectDir, int modules, boolean offline)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(new File(okbuckRoot, "gradlew").getAbsolutePath());
+    command.add("-p");
+    command.add(projectDir.getAbsolutePath());
+    command.add("--no-daemon");
+    if (offline) {
+      command.add("--offline");
+    }
+    command.add(OkBuckGradlePlugin.OKBUCK);
+    // Same as buckw, okbuck refuses to run otherwise
+    command.add("-Dokbuck.wrapper=true");
+
+    Map<Path, Long> before = snapshot(projectDir);
+    long start = System.currentTimeMillis();
+    Process process =
+        new ProcessBuilder(command)
+            .directory(projectDir)
+            .redirectErrorStream(true)
+            .redirectOutput(new File(projectDir, "okbuck.log"))
+            .start();
+    int exitCode = process.waitFor();
+    long wallTimeMs = System.currentTimeMillis() - start;
+    if (exitCode != 0) {
+      throw new IllegalStateException(
+          "okbuck failed on " + projectDir + ", see " + new File(projectDir, "okbuck.log"));
+    }
+
+    Path summary =
+        projectDir
+            .toPath()
+            .resolve("build")
+            .resolve(OkBuckGradlePlugin.OKBUCK_PROFILE)
+            .resolve(OkBuckProfiler.SUMMARY_FILE);
+    long peakHeapBytes;
+    try (Reader reader = Files.newBufferedReader(summary, UTF_8)) {
+      peakHeapBytes =
+          new Gson().fromJson(reader, JsonObject.class).get("peakHeapBytes").getAsLong();
+    }
+
+    long filesWritten =
+        snapshot(projectDir)
+            .entrySet()
+            .stream()
+            .filter(entry -> !entry.getValue().equals(before.get(entry.getKey())))
+            .count();
+    return new Result(modules, wallTimeMs, peakHeapBytes, filesWritten);
+  }
+
+  /** Returns the modification times of the project files, ignoring gradle's own outputs. */
+  private static Map<Path, Long> snapshot(File projectDir) throws IOException {
+    try (Stream<Path> files = Files.walk(projectDir.toPath())) {
+      return files
+          .filter(Files::isRegularFile)
+          .filter(file -> !file.toString().contains(File.separator + ".gradle" + File.separator))
+          .filter(file -> !file.toString().contains(File.separator + "build" + File.separator))
+          .collect(Collectors.toMap(file -> file, file -> file.toFile().lastModified()));
+    }
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path file : files.sorted((p1, p2) -> p2.compareTo(p1)).collect(Collectors.toList())) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private static final class Result {
+    private final int modules;
+    private final long wallTimeMs;
+    private final long peakHeapBytes;
+    private final long filesWritten;
+
+    private Result(int modules, long wallTimeMs, long peakHeapBytes, long filesWritten) {
+      this.modules = modules;
+      this.wallTimeMs = wallTimeMs;
+      this.peakHeapBytes = peakHeapBytes;
+      this.filesWritten = filesWritten;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.uber.okbuck.core.dependency;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmarks the dependency model over a whole synthetic graph. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DependencyBenchmark {
+
+  @Param({"1000", "10000", "50000"})
+  public int nodes;
+
+  private SyntheticGraph graph;
+
+  @Setup
+  public void setup() {
+    graph = new SyntheticGraph(nodes);
+  }
+
+  @Benchmark
+  public void getDeps(Blackhole blackhole) {
+    for (OExternalDependency dependency : graph.getDependencies()) {
+      blackhole.consume(dependency.getDeps());
+    }
+  }
+
+  @Benchmark
+  public void getModuleClassifier(Blackhole blackhole) {
+    List<String> fileNames = graph.getFileNames();
+    List<String> versions = graph.getVersions();
+    for (int i = 0; i < fileNames.size(); i++) {
+      blackhole.consume(DependencyUtils.getModuleClassifier(fileNames.get(i), versions.get(i)));
+    }
+  }
+
+  @Benchmark
+  public void lowest(Blackhole blackhole) {
+    for (List<OExternalDependency> versionGroup : graph.getVersionGroups()) {
+      blackhole.consume(DependencyUtils.lowest(versionGroup));
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package com.uber.okbuck.core.dependency;
+
+import com.uber.okbuck.composer.base.BuckRuleComposer;
+import com.uber.okbuck.core.model.base.RuleType;
+import com.uber.okbuck.extension.OkBuckExtension;
+import com.uber.okbuck.template.core.Rule;
+import com.uber.okbuck.template.java.Prebuilt;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+
+/**
+ * A synthetic external dependency graph used as benchmark input. Every artifact comes in a few
+ * versions and every dependency depends on a few random others, so graphs look like a real
+ * resolved classpath with version conflicts.
+ */
+public final class SyntheticGraph {
+
+  private static final int VERSIONS = 3;
+  private static final int FAN_OUT = 4;
+  private static final int GROUPS = 100;
+
+  private final Project project;
+  private final OkBuckExtension okBuckExtension;
+  private final List<OExternalDependency> dependencies = new ArrayList<>();
+  private final List<List<OExternalDependency>> versionGroups = new ArrayList<>();
+  private final List<String> fileNames = new ArrayList<>();
+  private final List<String> versions = new ArrayList<>();
+
+  public SyntheticGraph(int nodes) {
+    project = ProjectBuilder.builder().build();
+    okBuckExtension = new OkBuckExtension(project);
+
+    DependencyFactory factory = new DependencyFactory();
+    Random random = new Random(nodes);
+    for (int artifact = 0; dependencies.size() < nodes; artifact++) {
+      String group = "com.example.group" + (artifact % GROUPS);
+      String name = "artifact" + artifact;
+      List<OExternalDependency> versionGroup = new ArrayList<>();
+      for (int v = 0; v < VERSIONS && dependencies.size() < nodes; v++) {
+        String version = "1." + random.nextInt(20) + "." + v;
+        String fileName =
+            artifact % 2 == 0 ? name + "-" + version + ".jar" : name + "-" + version + "-all.jar";
+        File file = new File(group + "/" + name + "/" + version + "/" + fileName);
+
+        OExternalDependency dependency =
+            factory.from(
+                group,
+                name,
+                version,
+                file,
+                null,
+                okBuckExtension.getExternalDependenciesExtension(),
+                okBuckExtension.getJetifierExtension());
+        dependencies.add(dependency);
+        versionGroup.add(dependency);
+        fileNames.add(fileName);
+        versions.add(version);
+      }
+      versionGroups.add(versionGroup);
+    }
+
+    for (OExternalDependency dependency : dependencies) {
+      Set<OExternalDependency> deps = new HashSet<>();
+      for (int i = 0; i < FAN_OUT; i++) {
+        deps.add(dependencies.get(random.nextInt(dependencies.size())));
+      }
+      deps.remove(dependency);
+      dependency.addDeps(deps);
+    }
+  }
+
+  public Project getProject() {
+    return project;
+  }
+
+  public OkBuckExtension getOkBuckExtension() {
+    return okBuckExtension;
+  }
+
+  /** All dependencies of the graph. */
+  public List<OExternalDependency> getDependencies() {
+    return dependencies;
+  }
+
+  /** Dependencies grouped by group and name, each group holding the versions of one artifact. */
+  public List<List<OExternalDependency>> getVersionGroups() {
+    return versionGroups;
+  }
+
+  /** File names of the dependencies, half of the artifacts having a classifier. */
+  public List<String> getFileNames() {
+    return fileNames;
+  }
+
+  /** Versions matching {@link #getFileNames()}. */
+  public List<String> getVersions() {
+    return versions;
+  }
+
+  /** Prebuilt rules of all dependencies, as written to the consolidated external buck file. */
+  public List<Rule> getPrebuiltRules() {
+    return dependencies
+        .stream()
+        .map(
+            dependency ->
+                new Prebuilt()
+                    .mavenCoords(dependency.getMavenCoords())
+                    .enableJetifier(dependency.enableJetifier())
+                    .firstLevel(dependency.isFirstLevel())
+                    .sha256(dependency.getTargetName())
+                    .ruleType(RuleType.PREBUILT.getBuckName())
+                    .deps(BuckRuleComposer.external(dependency.getDeps()))
+                    .name(dependency.getTargetName()))
+        .collect(Collectors.toList());
+  }
+
+  /** Target names of all dependencies, as rendered in deps lists. */
+  public List<String> getTargets() {
+    return dependencies.stream().map(BuckRuleComposer::external).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,73 @@
+package com.uber.okbuck.core.manager;
+
+import com.uber.okbuck.core.dependency.SyntheticGraph;
+import com.uber.okbuck.core.util.GeneratedFiles;
+import com.uber.okbuck.core.util.OkBuckProfiler;
+import com.uber.okbuck.template.core.Rule;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks writing the consolidated external buck file, holding a prebuilt rule per node of the
+ * synthetic graph. Unchanged writes only render and compare, changed writes alternate between two
+ * versions of the file and hit the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuckFileManagerBenchmark {
+
+  @Param({"1000", "10000", "50000"})
+  public int nodes;
+
+  @Param({"false", "true"})
+  public boolean changed;
+
+  private BuckFileManager buckFileManager;
+  private List<Rule> rules;
+  private List<Rule> otherRules;
+  private File buckFile;
+  private boolean flip;
+
+  @Setup
+  public void setup() throws IOException {
+    SyntheticGraph graph = new SyntheticGraph(nodes);
+    File dir = Files.createTempDirectory("okbuck-jmh").toFile();
+    buckFileManager =
+        new BuckFileManager(
+            graph.getOkBuckExtension().getRuleOverridesExtension(),
+            new OkBuckProfiler(false),
+            new GeneratedFiles(dir.toPath(), new File(dir, "GENERATED_FILES")),
+            1);
+    rules = graph.getPrebuiltRules();
+    otherRules = new ArrayList<>(rules.subList(1, rules.size()));
+    buckFile = new File(dir, "BUCK");
+    buckFileManager.writeToBuckFile(rules, buckFile);
+  }
+
+  @Benchmark
+  public void writeToBuckFile() {
+    if (changed) {
+      flip = !flip;
+    }
+    buckFileManager.writeToBuckFile(flip ? otherRules : rules, buckFile);
+  }
+}
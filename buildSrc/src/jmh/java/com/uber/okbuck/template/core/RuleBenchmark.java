@@ -0,0 +1,111 @@
+package com.uber.okbuck.template.core;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.uber.okbuck.core.dependency.SyntheticGraph;
+import com.uber.okbuck.core.model.base.RuleType;
+import com.uber.okbuck.template.android.AndroidModuleRule;
+import com.uber.okbuck.template.jvm.JvmRule;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks rendering the biggest rule templates. The module rules depend on every node of the
+ * synthetic graph, so their deps lists are as long as the graph.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RuleBenchmark {
+
+  @Param({"1000", "10000", "50000"})
+  public int nodes;
+
+  private List<String> targets;
+  private List<Rule> prebuiltRules;
+  private Rule androidModuleRule;
+  private Rule jvmRule;
+
+  @Setup
+  public void setup() {
+    SyntheticGraph graph = new SyntheticGraph(nodes);
+    targets = graph.getTargets();
+    prebuiltRules = graph.getPrebuiltRules();
+
+    androidModuleRule =
+        new AndroidModuleRule()
+            .srcs(ImmutableSet.of("src/main/java"))
+            .exts(ImmutableSet.of("java"))
+            .resDirs(ImmutableSet.of("src/main/res"))
+            .sourceCompatibility("1.8")
+            .targetCompatibility("1.8")
+            .providedDeps(targets)
+            .options(ImmutableMap.of())
+            .disableLint(true)
+            .pkg("com.example")
+            .manifestMainManifest("src/main/AndroidManifest.xml")
+            .manifestMinSdk("21")
+            .manifestTargetSdk("29")
+            .resRes(ImmutableSet.of("src/main/res"))
+            .ruleType(RuleType.ANDROID_MODULE.getBuckName())
+            .deps(targets)
+            .name("src_main")
+            .defaultVisibility();
+
+    jvmRule =
+        new JvmRule()
+            .srcs(ImmutableSet.of("src/main/java"))
+            .exts(ImmutableSet.of("java"))
+            .sourceCompatibility("1.8")
+            .targetCompatibility("1.8")
+            .mavenCoords("com.example:app:1.0.0")
+            .providedDeps(targets)
+            .ruleType(RuleType.JAVA_LIBRARY.getBuckName())
+            .deps(targets)
+            .name("src_main")
+            .defaultVisibility();
+  }
+
+  @Benchmark
+  public Object sorted() {
+    return Rule.sorted(targets);
+  }
+
+  @Benchmark
+  public byte[] renderAndroidModuleRule() {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    androidModuleRule.render(os);
+    return os.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] renderJvmRule() {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    jvmRule.render(os);
+    return os.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] renderPrebuilts() {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    for (Rule rule : prebuiltRules) {
+      rule.render(os);
+    }
+    return os.toByteArray();
+  }
+}
@@ -1,8 +1,14 @@
 package com.uber.okbuck;
 
 import com.facebook.infer.annotation.Initializer;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
+import com.uber.okbuck.composer.base.LabelRegistry;
 import com.uber.okbuck.core.annotation.AnnotationProcessorCache;
+import com.uber.okbuck.core.dependency.AnnotationProcessorIndex;
 import com.uber.okbuck.core.dependency.DependencyCache;
 import com.uber.okbuck.core.dependency.DependencyFactory;
 import com.uber.okbuck.core.manager.BuckFileManager;
@@ -20,24 +26,28 @@ import com.uber.okbuck.core.manager.TransformManager;
 import com.uber.okbuck.core.model.base.ProjectType;
 import com.uber.okbuck.core.task.OkBuckCleanTask;
 import com.uber.okbuck.core.task.OkBuckTask;
+import com.uber.okbuck.core.util.AffectedProjects;
 import com.uber.okbuck.core.util.FileUtil;
+import com.uber.okbuck.core.util.GeneratedFiles;
 import com.uber.okbuck.core.util.MoreCollectors;
+import com.uber.okbuck.core.util.OkBuckProfiler;
 import com.uber.okbuck.core.util.ProjectCache;
+import com.uber.okbuck.core.util.ProjectFingerprintCache;
 import com.uber.okbuck.core.util.ProjectUtil;
+import com.uber.okbuck.core.util.ResolvedGraphCache;
 import com.uber.okbuck.extension.KotlinExtension;
 import com.uber.okbuck.extension.OkBuckExtension;
 import com.uber.okbuck.extension.ScalaExtension;
 import com.uber.okbuck.extension.WrapperExtension;
-import com.uber.okbuck.generator.BuckFileGenerator;
+import com.uber.okbuck.generator.BuckFileGenerationEngine;
 import com.uber.okbuck.template.common.ExportFile;
 import com.uber.okbuck.template.core.Rule;
 import com.uber.okbuck.wrapper.BuckWrapperTask;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
@@ -88,8 +98,9 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
 
   public static final String OKBUCK_CONFIG = DOT_OKBUCK + "/config";
 
-  private static final String OKBUCK_STATE_DIR = DOT_OKBUCK + "/state";
+  public static final String OKBUCK_STATE_DIR = DOT_OKBUCK + "/state";
   private static final String OKBUCK_CLEAN = "okbuckClean";
+  private static final String OKBUCK_GENERATE = "okbuckGenerate";
   private static final String BUCK_WRAPPER = "buckWrapper";
   private static final String FORCED_OKBUCK = "forcedOkbuck";
   private static final String PROCESSOR_BUILD_FOLDER = WORKSPACE_PATH + "/processor";
@@ -97,10 +108,23 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
 
   public static final String OKBUCK_STATE = OKBUCK_STATE_DIR + "/STATE";
   public static final String DEFAULT_OKBUCK_SHA256 = OKBUCK_STATE_DIR + "/SHA256";
+  public static final String OKBUCK_FINGERPRINTS = OKBUCK_STATE_DIR + "/FINGERPRINTS";
+  public static final String OKBUCK_PROFILE = "okbuck-profile";
+  public static final String RESOLVED_GRAPHS = OKBUCK_STATE_DIR + "/RESOLVED_GRAPHS";
+  public static final String RESOLUTION_COSTS = OKBUCK_STATE_DIR + "/RESOLUTION_COSTS";
+  public static final String ANNOTATION_PROCESSORS = OKBUCK_STATE_DIR + "/ANNOTATION_PROCESSORS";
+  public static final String GENERATED_FILES = OKBUCK_STATE_DIR + "/GENERATED_FILES";
 
   public final Set<String> exportedPaths = Sets.newConcurrentHashSet();
+  private final SetMultimap<String, String> projectExportedPaths =
+      Multimaps.synchronizedSetMultimap(HashMultimap.create());
 
   public DependencyCache depCache;
+  public OkBuckProfiler profiler;
+  public ProjectFingerprintCache fingerprintCache;
+  public ResolvedGraphCache resolvedGraphCache;
+  public AnnotationProcessorIndex annotationProcessorIndex;
+  public GeneratedFiles generatedFiles;
   public DependencyFactory dependencyFactory;
   public DependencyManager dependencyManager;
   public AnnotationProcessorCache annotationProcessorCache;
@@ -126,6 +150,9 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
     OkBuckExtension okbuckExt =
         rootProject.getExtensions().create(OKBUCK, OkBuckExtension.class, rootProject);
 
+    // Don't keep the labels of a failed run alive on the gradle daemon until the next run
+    rootProject.getGradle().buildFinished(result -> LabelRegistry.reset());
+
     // Create configurations
     rootProject.getConfigurations().maybeCreate(TransformManager.CONFIGURATION_TRANSFORM);
     rootProject.getConfigurations().maybeCreate(FORCED_OKBUCK);
@@ -144,9 +171,22 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
           setupOkbuck.setGroup(GROUP);
           setupOkbuck.setDescription("Setup okbuck cache and dependencies");
 
+          // Create profiler
+          profiler = new OkBuckProfiler(okbuckExt.profile);
+
+          // Create manifest of generated files
+          generatedFiles =
+              new GeneratedFiles(
+                  rootBuckProject.getProjectDir().toPath(),
+                  rootBuckProject.file(GENERATED_FILES));
+
           // Create buck file manager.
           BuckFileManager buckFileManager =
-              new BuckFileManager(okbuckExt.getRuleOverridesExtension());
+              new BuckFileManager(
+                  okbuckExt.getRuleOverridesExtension(),
+                  profiler,
+                  generatedFiles,
+                  BuckFileGenerationEngine.getRenderThreads(okbuckExt));
 
           dependencyFactory = new DependencyFactory();
 
@@ -189,6 +229,10 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
           // Create Manifest Merger Manager
           manifestMergerManager = new ManifestMergerManager(rootBuckProject, buckFileManager);
 
+          // Create buck file generation engine
+          BuckFileGenerationEngine generationEngine =
+              new BuckFileGenerationEngine(buckFileManager, okbuckExt);
+
           KotlinExtension kotlin = okbuckExt.getKotlinExtension();
           ScalaExtension scala = okbuckExt.getScalaExtension();
 
@@ -199,21 +243,45 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
           rootOkBuckTask.dependsOn(setupOkbuck);
           rootOkBuckTask.doLast(
               task -> {
-                annotationProcessorCache.finalizeProcessors();
-                dependencyManager.resolveCurrentRawDeps();
-                dependencyManager.finalizeDependencies(okbuckExt);
-                jetifierManager.finalizeDependencies(okbuckExt);
-                lintManager.finalizeDependencies();
-                kotlinManager.finalizeDependencies(okbuckExt);
-                scalaManager.finalizeDependencies(okbuckExt);
-                groovyManager.finalizeDependencies(okbuckExt);
-                robolectricManager.finalizeDependencies(okbuckExt);
-                transformManager.finalizeDependencies(okbuckExt);
-                buckManager.finalizeDependencies();
-                manifestMergerManager.finalizeDependencies(okbuckExt);
-                dependencyFactory.finalizeDependencies();
-
-                writeExportedFileRules(rootBuckProject, okbuckExt);
+                profiler.time("finalizeProcessors", annotationProcessorCache::finalizeProcessors);
+                profiler.time("resolveRawDeps", dependencyManager::resolveCurrentRawDeps);
+                profiler.time(
+                    "finalize:dependencies",
+                    () -> dependencyManager.finalizeDependencies(okbuckExt));
+                profiler.time(
+                    "finalize:jetifier", () -> jetifierManager.finalizeDependencies(okbuckExt));
+                profiler.time("finalize:lint", lintManager::finalizeDependencies);
+                profiler.time(
+                    "finalize:kotlin", () -> kotlinManager.finalizeDependencies(okbuckExt));
+                profiler.time("finalize:scala", () -> scalaManager.finalizeDependencies(okbuckExt));
+                profiler.time(
+                    "finalize:groovy", () -> groovyManager.finalizeDependencies(okbuckExt));
+                profiler.time(
+                    "finalize:robolectric",
+                    () -> robolectricManager.finalizeDependencies(okbuckExt));
+                profiler.time(
+                    "finalize:transform", () -> transformManager.finalizeDependencies(okbuckExt));
+                profiler.time("finalize:buck", buckManager::finalizeDependencies);
+                profiler.time(
+                    "finalize:manifestMerger",
+                    () -> manifestMergerManager.finalizeDependencies(okbuckExt));
+                profiler.time(
+                    "finalize:dependencyFactory", dependencyFactory::finalizeDependencies);
+
+                profiler.time(
+                    "writeExportedFileRules",
+                    () -> writeExportedFileRules(rootBuckProject, okbuckExt, buckFileManager));
+                profiler.time("writeBuckFiles", buckFileManager::writeStagedBuckFiles);
+                profiler.time(
+                    "removeStaleFiles",
+                    () ->
+                        generatedFiles.removeStale(
+                            Runtime.getRuntime().availableProcessors(), profiler));
+
+                fingerprintCache.persist();
+                resolvedGraphCache.persist();
+                annotationProcessorIndex.persist();
+                generatedFiles.persist();
 
                 // Reset root project's scope cache at the very end
                 ProjectCache.resetScopeCache(rootProject);
@@ -223,6 +291,9 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
                 // the target cache is accessed by other projects and have to
                 // be available until okbuck tasks of all the projects finishes.
                 ProjectCache.resetTargetCacheForAll(rootProject);
+                LabelRegistry.reset();
+
+                profiler.write(new File(rootProject.getBuildDir(), OKBUCK_PROFILE));
               });
 
           WrapperExtension wrapper = okbuckExt.getWrapperExtension();
@@ -235,7 +306,8 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
                   wrapper.repo,
                   wrapper.watch,
                   wrapper.sourceRoots,
-                  wrapper.ignoredDirs);
+                  wrapper.ignoredDirs,
+                  wrapper.daemon);
 
           Map<String, Configuration> extraConfigurations =
               okbuckExt
@@ -261,50 +333,78 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
           // Configure setup task
           setupOkbuck.doLast(
               task -> {
-                // Init all project's target cache at the very start since a project
-                // can access other project's target cache. Hence, all target cache
-                // needs to be initialized before any okbuck task starts.
-                ProjectCache.initTargetCacheForAll(rootProject);
-
-                // Init root project's scope cache.
-                ProjectCache.initScopeCache(rootProject);
-
-                depCache = new DependencyCache(rootBuckProject, dependencyManager, FORCED_OKBUCK);
-
-                // Fetch Lint deps if needed
-                if (!okbuckExt.getLintExtension().disabled
-                    && okbuckExt.getLintExtension().version != null) {
-                  lintManager.fetchLintDeps(okbuckExt.getLintExtension().version);
-                }
-
-                // Fetch transform deps if needed
-                if (!okbuckExt.getTransformExtension().transforms.isEmpty()) {
-                  transformManager.fetchTransformDeps();
-                }
-
-                // Setup d8 deps
-                d8Manager.copyDeps(buckFileManager, okbuckExt);
-
-                // Fetch robolectric deps if needed
-                if (okbuckExt.getTestExtension().robolectric) {
-                  robolectricManager.download();
-                }
-
-                if (JetifierManager.isJetifierEnabled(rootProject)) {
-                  jetifierManager.setupJetifier(okbuckExt.getJetifierExtension().version);
+                try (OkBuckProfiler.Phase ignored = profiler.start("setupOkbuck")) {
+                  // Init all project's target cache at the very start since a project
+                  // can access other project's target cache. Hence, all target cache
+                  // needs to be initialized before any okbuck task starts.
+                  ProjectCache.initTargetCacheForAll(rootProject);
+
+                  // Init root project's scope cache.
+                  ProjectCache.initScopeCache(rootProject);
+
+                  // Drop labels left over by a failed run in the same daemon.
+                  LabelRegistry.reset();
+
+                  fingerprintCache =
+                      new ProjectFingerprintCache(
+                          rootProject,
+                          okbuckExt,
+                          buckFileManager,
+                          OKBUCK_FINGERPRINTS,
+                          AffectedProjects.fromWrapper(rootProject, okbuckExt.buckProjects));
+                  resolvedGraphCache =
+                      new ResolvedGraphCache(rootProject, okbuckExt, RESOLVED_GRAPHS);
+                  annotationProcessorIndex =
+                      new AnnotationProcessorIndex(rootProject.file(ANNOTATION_PROCESSORS));
+
+                  depCache = new DependencyCache(rootBuckProject, dependencyManager, FORCED_OKBUCK);
+
+                  // Fetch Lint deps if needed
+                  if (!okbuckExt.getLintExtension().disabled
+                      && okbuckExt.getLintExtension().version != null) {
+                    lintManager.fetchLintDeps(okbuckExt.getLintExtension().version);
+                  }
+
+                  // Fetch transform deps if needed
+                  if (!okbuckExt.getTransformExtension().transforms.isEmpty()) {
+                    transformManager.fetchTransformDeps();
+                  }
+
+                  // Setup d8 deps
+                  d8Manager.copyDeps(buckFileManager, okbuckExt);
+
+                  // Fetch robolectric deps if needed
+                  if (okbuckExt.getTestExtension().robolectric) {
+                    robolectricManager.download();
+                  }
+
+                  if (JetifierManager.isJetifierEnabled(rootProject)) {
+                    jetifierManager.setupJetifier(okbuckExt.getJetifierExtension().version);
+                  }
+
+                  extraConfigurations.forEach(
+                      (cacheName, extraConfiguration) ->
+                          new DependencyCache(
+                                  rootBuckProject,
+                                  dependencyManager,
+                                  okbuckExt.extraDepCachesMap.getOrDefault(cacheName, false))
+                              .build(extraConfiguration));
+
+                  buckManager.setupBuckBinary();
+
+                  manifestMergerManager.fetchManifestMergerDeps();
+
+                  if (okbuckExt.getExperimentalExtension().prepareProcessorScopes) {
+                    profiler.time(
+                        "prepareProcessorScopes",
+                        () ->
+                            annotationProcessorCache.prepareProcessorScopes(
+                                okbuckExt.buckProjects,
+                                okbuckExt
+                                    .getExternalDependenciesExtension()
+                                    .getResolutionThreads()));
+                  }
                 }
-
-                extraConfigurations.forEach(
-                    (cacheName, extraConfiguration) ->
-                        new DependencyCache(
-                                rootBuckProject,
-                                dependencyManager,
-                                okbuckExt.extraDepCachesMap.getOrDefault(cacheName, false))
-                            .build(extraConfiguration));
-
-                buckManager.setupBuckBinary();
-
-                manifestMergerManager.fetchManifestMergerDeps();
               });
 
           // Create clean task
@@ -314,29 +414,51 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
                   .create(OKBUCK_CLEAN, OkBuckCleanTask.class, okbuckExt.buckProjects);
           rootOkBuckTask.dependsOn(okBuckClean);
 
+          List<Project> generatedProjects =
+              okbuckExt
+                  .buckProjects
+                  .stream()
+                  .filter(p -> p.getBuildFile().exists())
+                  .collect(Collectors.toList());
+
+          // Create generate task which runs once all project's okbuck tasks are done
+          Task okBuckGenerate = rootBuckProject.getTasks().create(OKBUCK_GENERATE);
+          okBuckGenerate.dependsOn(setupOkbuck);
+          okBuckGenerate.doLast(task -> generationEngine.reportTimings());
+          okBuckClean.dependsOn(okBuckGenerate);
+
           // Create okbuck task on each project to generate their buck file
-          okbuckExt
-              .buckProjects
-              .stream()
-              .filter(p -> p.getBuildFile().exists())
-              .forEach(
-                  bp -> {
-                    bp.getConfigurations().maybeCreate(BUCK_LINT);
-
-                    Task okbuckProjectTask = bp.getTasks().maybeCreate(OKBUCK);
-                    okbuckProjectTask.doLast(
-                        task -> {
-                          ProjectCache.initScopeCache(bp);
-                          BuckFileGenerator.generate(bp, buckFileManager, okbuckExt);
-                          ProjectCache.resetScopeCache(bp);
-                        });
-                    okbuckProjectTask.dependsOn(setupOkbuck);
-                    okBuckClean.dependsOn(okbuckProjectTask);
-                  });
+          generatedProjects.forEach(
+              bp -> {
+                bp.getConfigurations().maybeCreate(BUCK_LINT);
+
+                Task okbuckProjectTask = bp.getTasks().maybeCreate(OKBUCK);
+                okbuckProjectTask.doLast(task -> generationEngine.generate(bp));
+                okbuckProjectTask.dependsOn(setupOkbuck);
+                okBuckGenerate.dependsOn(okbuckProjectTask);
+              });
         });
   }
 
-  private void writeExportedFileRules(Project rootBuckProject, OkBuckExtension okBuckExtension) {
+  /**
+   * Registers a file to be exported from the buck package containing it.
+   *
+   * @param project The project whose targets reference the file
+   * @param exportedPath The path of the file relative to the root project
+   */
+  public void addExportedPath(Project project, String exportedPath) {
+    exportedPaths.add(exportedPath);
+    projectExportedPaths.put(project.getPath(), exportedPath);
+  }
+
+  public Set<String> getExportedPaths(Project project) {
+    synchronized (projectExportedPaths) {
+      return ImmutableSet.copyOf(projectExportedPaths.get(project.getPath()));
+    }
+  }
+
+  private void writeExportedFileRules(
+      Project rootBuckProject, OkBuckExtension okBuckExtension, BuckFileManager buckFileManager) {
     Set<String> currentProjectPaths =
         okBuckExtension
             .buckProjects
@@ -367,16 +489,18 @@ public class OkBuckGradlePlugin implements Plugin<Project> {
               .resolve(entry.getKey())
               .resolve(okBuckExtension.buildFileName)
               .toFile();
-      try (OutputStream os =
-          new FileOutputStream(buckFile, currentProjectPaths.contains(entry.getKey()))) {
-        entry
-            .getValue()
-            .stream()
-            .sorted((rule1, rule2) -> rule1.name().compareToIgnoreCase(rule2.name()))
-            .forEach(rule -> rule.render(os));
-      } catch (IOException e) {
-        throw new IllegalStateException(e);
+      // Project buck files are staged, append the exported file rules to them
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      if (currentProjectPaths.contains(entry.getKey())) {
+        byte[] staged = buckFileManager.getStagedBuckFile(buckFile).join();
+        os.write(staged, 0, staged.length);
       }
+      entry
+          .getValue()
+          .stream()
+          .sorted((rule1, rule2) -> rule1.name().compareToIgnoreCase(rule2.name()))
+          .forEach(rule -> rule.render(os));
+      buckFileManager.stageBuckFile(buckFile, os.toByteArray());
     }
   }
 }
@@ -84,7 +84,8 @@ public final class AndroidModuleRuleComposer extends AndroidBuckRuleComposer {
         lintConfigPath =
             FileUtil.getRelativePath(
                 target.getRootProject().getProjectDir(), target.getLintOptions().getLintConfig());
-        ProjectUtil.getPlugin(target.getRootProject()).exportedPaths.add(lintConfigPath);
+        ProjectUtil.getPlugin(target.getRootProject())
+            .addExportedPath(target.getProject(), lintConfigPath);
       } else {
         lintConfigPath = null;
       }
@@ -19,7 +19,7 @@ public abstract class BuckRuleComposer {
 
   public static String external(OExternalDependency dep) {
     try {
-      return String.format("//%s:%s", dep.getTargetPath(), dep.getTargetName());
+      return LabelRegistry.external(dep);
     } catch (NullPointerException e) {
       throw new IllegalStateException(e);
     }
@@ -34,7 +34,7 @@ public abstract class BuckRuleComposer {
   }
 
   private static String targets(Target dep) {
-    return String.format("//%s:src_%s", dep.getPath(), dep.getName());
+    return LabelRegistry.target(dep);
   }
 
   public static Set<String> targetsApt(Set<Target> deps) {
@@ -45,7 +45,7 @@ public abstract class BuckRuleComposer {
   }
 
   public static String binTargets(Target dep) {
-    return String.format("//%s:bin_%s", dep.getPath(), dep.getName());
+    return LabelRegistry.binTarget(dep);
   }
 
   @Nullable
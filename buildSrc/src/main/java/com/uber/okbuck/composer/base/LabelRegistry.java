@@ -0,0 +1,47 @@
+package com.uber.okbuck.composer.base;
+
+import com.uber.okbuck.core.dependency.OExternalDependency;
+import com.uber.okbuck.core.model.base.Target;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes the buck labels of dependencies and targets once per run. The same dependency is
+ * referenced by the rules of every target depending on it, so all rules share a single label
+ * instance instead of formatting it again each time.
+ *
+ * <p>Labels are only valid for the current run and have to be cleared with {@link #reset()} once
+ * it is done. They are also cleared when a build finishes, so that a failed run doesn't keep them
+ * alive on a gradle daemon.
+ */
+public final class LabelRegistry {
+
+  private static final Map<OExternalDependency, String> EXTERNAL_LABELS =
+      new ConcurrentHashMap<>();
+  private static final Map<Target, String> TARGET_LABELS = new ConcurrentHashMap<>();
+  private static final Map<Target, String> BIN_TARGET_LABELS = new ConcurrentHashMap<>();
+
+  private LabelRegistry() {}
+
+  static String external(OExternalDependency dependency) {
+    return EXTERNAL_LABELS.computeIfAbsent(
+        dependency, dep -> "//" + dep.getTargetPath() + ":" + dep.getTargetName());
+  }
+
+  static String target(Target target) {
+    return TARGET_LABELS.computeIfAbsent(
+        target, dep -> "//" + dep.getPath() + ":src_" + dep.getName());
+  }
+
+  static String binTarget(Target target) {
+    return BIN_TARGET_LABELS.computeIfAbsent(
+        target, dep -> "//" + dep.getPath() + ":bin_" + dep.getName());
+  }
+
+  /** Clears the labels of the current run. */
+  public static void reset() {
+    EXTERNAL_LABELS.clear();
+    TARGET_LABELS.clear();
+    BIN_TARGET_LABELS.clear();
+  }
+}
@@ -2,11 +2,11 @@ package com.uber.okbuck.composer.common;
 
 import com.google.common.base.Preconditions;
 import com.uber.okbuck.core.dependency.OExternalDependency;
+import com.uber.okbuck.core.dependency.Sha256Cache;
 import com.uber.okbuck.core.model.base.RuleType;
 import com.uber.okbuck.template.common.BazelHttpFile;
 import com.uber.okbuck.template.core.Rule;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -19,14 +19,14 @@ public class BazelHttpFileRuleComposer {
    * @return List of rules
    */
   public static List<Rule> compose(
-      Collection<OExternalDependency> dependencies, HashMap<String, String> shaSum256) {
+      Collection<OExternalDependency> dependencies, Sha256Cache shaSum256) {
     return dependencies
         .stream()
         .sorted(OExternalDependency.compareByName)
         .map(
             dependency -> {
               String sha256Key =
-                  OExternalDependency.getGradleSha(dependency.getRealDependencyFile());
+                  OExternalDependency.getSha256Key(dependency.getRealDependencyFile());
               String sha256 = Preconditions.checkNotNull(shaSum256.get(sha256Key));
 
               BazelHttpFile rule =
@@ -36,7 +36,7 @@ public class BazelHttpFileRuleComposer {
                   .getRealSourceFile()
                   .ifPresent(
                       file -> {
-                        String sourcesSha256Key = OExternalDependency.getGradleSha(file);
+                        String sourcesSha256Key = OExternalDependency.getSha256Key(file);
                         String sourcesSha256 =
                             Preconditions.checkNotNull(shaSum256.get(sourcesSha256Key));
                         rule.sourcesSha256(sourcesSha256);
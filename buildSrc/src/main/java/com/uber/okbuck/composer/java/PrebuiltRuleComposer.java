@@ -7,11 +7,11 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.uber.okbuck.composer.jvm.JvmBuckRuleComposer;
 import com.uber.okbuck.core.dependency.OExternalDependency;
+import com.uber.okbuck.core.dependency.Sha256Cache;
 import com.uber.okbuck.core.model.base.RuleType;
 import com.uber.okbuck.template.core.Rule;
 import com.uber.okbuck.template.java.Prebuilt;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -25,7 +25,7 @@ public class PrebuiltRuleComposer extends JvmBuckRuleComposer {
    */
   @SuppressWarnings("NullAway")
   public static List<Rule> compose(
-      Collection<OExternalDependency> dependencies, HashMap<String, String> shaSum256) {
+      Collection<OExternalDependency> dependencies, Sha256Cache shaSum256) {
     return dependencies
         .stream()
         .peek(
@@ -38,7 +38,7 @@ public class PrebuiltRuleComposer extends JvmBuckRuleComposer {
         .map(
             dependency -> {
               String sha256Key =
-                  OExternalDependency.getGradleSha(dependency.getRealDependencyFile());
+                  OExternalDependency.getSha256Key(dependency.getRealDependencyFile());
               String sha256 = Preconditions.checkNotNull(shaSum256.get(sha256Key));
 
               Prebuilt rule =
@@ -52,7 +52,7 @@ public class PrebuiltRuleComposer extends JvmBuckRuleComposer {
                   .getRealSourceFile()
                   .ifPresent(
                       file -> {
-                        String sourcesSha256Key = OExternalDependency.getGradleSha(file);
+                        String sourcesSha256Key = OExternalDependency.getSha256Key(file);
                         String sourcesSha256 =
                             Preconditions.checkNotNull(shaSum256.get(sourcesSha256Key));
                         rule.sourcesSha256(sourcesSha256);
@@ -1,37 +1,65 @@
 package com.uber.okbuck.core.annotation;
 
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
+import com.google.errorprone.annotations.Var;
 import com.uber.okbuck.composer.java.JavaAnnotationProcessorRuleComposer;
+import com.uber.okbuck.core.dependency.DependencyCache;
 import com.uber.okbuck.core.dependency.DependencyUtils;
 import com.uber.okbuck.core.manager.BuckFileManager;
 import com.uber.okbuck.core.model.base.Scope;
+import com.uber.okbuck.core.util.OkBuckProfiler;
+import com.uber.okbuck.core.util.ProjectCache;
 import com.uber.okbuck.core.util.ProjectUtil;
 import com.uber.okbuck.extension.ExternalDependenciesExtension;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
-import kotlin.jvm.Synchronized;
+import org.apache.commons.lang3.StringUtils;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /** Keeps a cache of the annotation processor dependencies and its scope. */
 public class AnnotationProcessorCache {
+  private static final Logger LOG = LoggerFactory.getLogger(AnnotationProcessorCache.class);
+
   public static final String AUTO_VALUE_GROUP = "com.google.auto.value";
   public static final String AUTO_VALUE_NAME = "auto-value";
 
+  private static final String ANNOTATION_PROCESSOR = "annotationProcessor";
+  private static final String KAPT = "kapt";
+
   private final Project project;
   private final BuckFileManager buckFileManager;
   private final String processorBuckFile;
   private final Map<Set<Dependency>, Scope> dependencyToScopeMap;
+  private final SetMultimap<String, String> projectToProcessorConfigurations =
+      Multimaps.synchronizedSetMultimap(HashMultimap.create());
+
+  // Scopes prepared up front, moved to dependencyToScopeMap once a target asks for them. They are
+  // built without registering their dependencies, which happens once they are moved.
+  private final Map<Set<Dependency>, Scope> preparedScopes = new ConcurrentHashMap<>();
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
 
   @Nullable private Map<Set<Dependency>, Scope> autoValueDependencyToScopeMap;
 
@@ -43,8 +71,7 @@ public class AnnotationProcessorCache {
     this.dependencyToScopeMap = new ConcurrentHashMap<>();
   }
 
-  @Synchronized
-  private Map<Set<Dependency>, Scope> getAutoValueDependencyToScopeMap() {
+  private synchronized Map<Set<Dependency>, Scope> getAutoValueDependencyToScopeMap() {
     if (autoValueDependencyToScopeMap == null) {
       Project rootProject = project.getRootProject();
       ExternalDependenciesExtension extension = ProjectUtil.getExternalDependencyExtension(project);
@@ -79,6 +106,7 @@ public class AnnotationProcessorCache {
    * @return A list of scopes generated by the configuration.
    */
   public List<Scope> getAnnotationProcessorScopes(Project project, Configuration configuration) {
+    projectToProcessorConfigurations.put(project.getPath(), configuration.getName());
     ImmutableList.Builder<Scope> scopesBuilder = ImmutableList.builder();
 
     Map<Dependency, Scope> singleDependencyToScope =
@@ -124,18 +152,15 @@ public class AnnotationProcessorCache {
   }
 
   private static boolean isAutoValueScope(Scope scope) {
+    // Checks the names first, the extensions require looking into the dependency jars
     return scope
-        .getExternalDeps()
-        .stream()
-        .anyMatch(
-            dependency -> {
-              if (dependency.getGroup().equals(AUTO_VALUE_GROUP)
-                  || dependency.getName().startsWith(AUTO_VALUE_NAME)) {
-                return true;
-              }
-
-              return scope.hasAutoValueExtensions();
-            });
+            .getExternalDeps()
+            .stream()
+            .anyMatch(
+                dependency ->
+                    dependency.getGroup().equals(AUTO_VALUE_GROUP)
+                        || dependency.getName().startsWith(AUTO_VALUE_NAME))
+        || scope.hasAutoValueExtensions();
   }
 
   /**
@@ -159,6 +184,7 @@ public class AnnotationProcessorCache {
    * @return A boolean whether the configuration has any empty annotation processors.
    */
   public boolean hasEmptyAnnotationProcessors(Project project, Configuration configuration) {
+    projectToProcessorConfigurations.put(project.getPath(), configuration.getName());
     Map<Dependency, Scope> depToScope =
         createProcessorScopes(project, configuration.getAllDependencies());
 
@@ -168,6 +194,115 @@ public class AnnotationProcessorCache {
         .anyMatch(scope -> scope.getAnnotationProcessors().isEmpty());
   }
 
+  /**
+   * Returns the annotation processor configurations queried for the given project.
+   *
+   * @param project project on which the configurations are defined.
+   * @return A set of configuration names.
+   */
+  public Set<String> getProcessorConfigurations(Project project) {
+    synchronized (projectToProcessorConfigurations) {
+      return ImmutableSet.copyOf(projectToProcessorConfigurations.get(project.getPath()));
+    }
+  }
+
+  /**
+   * Creates the processor scopes of the given configurations without going through the project's
+   * targets. Used to register the processors of a project whose generation was skipped.
+   *
+   * @param project project on which the configurations are defined.
+   * @param configurationStrings Configuration strings which are used to query the deps.
+   */
+  public void restoreProcessorScopes(Project project, Set<String> configurationStrings) {
+    for (String configurationString : configurationStrings) {
+      Optional<Configuration> configuration = getConfiguration(project, configurationString);
+      if (configuration.isPresent()) {
+        projectToProcessorConfigurations.put(project.getPath(), configurationString);
+
+        Map<Dependency, Scope> singleDependencyToScope =
+            createProcessorScopes(project, configuration.get().getAllDependencies());
+        if (!getAutoValueDependencies(singleDependencyToScope).isEmpty()) {
+          getAutoValueDependencyToScopeMap();
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the scopes of all the distinct processor dependencies declared on the given projects in
+   * parallel, so that targets don't resolve them one at a time while they are generated. Only the
+   * scopes targets ask for end up in the processor buck file.
+   *
+   * @param projects projects whose annotation processor configurations are prepared.
+   * @param parallelism number of threads to create the scopes on.
+   */
+  public void prepareProcessorScopes(Collection<Project> projects, int parallelism) {
+    long start = System.nanoTime();
+
+    // Claims each distinct dependency for the first project declaring it
+    Map<Set<Dependency>, Project> pending = new LinkedHashMap<>();
+    projects.forEach(
+        project ->
+            project
+                .getConfigurations()
+                .stream()
+                .filter(configuration -> isProcessorConfiguration(configuration.getName()))
+                .flatMap(configuration -> configuration.getAllDependencies().stream())
+                .map(ImmutableSet::of)
+                .filter(dependencySet -> !dependencyToScopeMap.containsKey(dependencySet))
+                .forEach(dependencySet -> pending.putIfAbsent(dependencySet, project)));
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    Map<Project, List<Set<Dependency>>> projectToDependencies = new LinkedHashMap<>();
+    pending.forEach(
+        (dependencySet, project) ->
+            projectToDependencies
+                .computeIfAbsent(project, key -> new ArrayList<>())
+                .add(dependencySet));
+
+    ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, projectToDependencies.size()));
+    try {
+      List<ForkJoinTask<?>> tasks = new ArrayList<>();
+      projectToDependencies.forEach(
+          (project, dependencySets) ->
+              tasks.add(pool.submit(() -> prepareProcessorScopes(project, dependencySets))));
+      tasks.forEach(ForkJoinTask::join);
+    } finally {
+      pool.shutdown();
+    }
+
+    LOG.info(
+        "Prepared {} processor scopes of {} projects in {} ms",
+        pending.size(),
+        projectToDependencies.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  private void prepareProcessorScopes(Project project, List<Set<Dependency>> dependencySets) {
+    // The scope cache of the root project lives for the whole run
+    boolean root = project == project.getRootProject();
+    if (!root) {
+      ProjectCache.initScopeCache(project);
+    }
+
+    DependencyCache depCache = ProjectUtil.getDependencyCache(project).withoutRegistration();
+    dependencySets.forEach(
+        dependencySet ->
+            preparedScopes.put(dependencySet, computeScope(project, dependencySet, depCache)));
+
+    if (!root) {
+      ProjectCache.resetScopeCache(project);
+    }
+  }
+
+  private static boolean isProcessorConfiguration(String name) {
+    return name.equals(ANNOTATION_PROCESSOR)
+        || name.endsWith(StringUtils.capitalize(ANNOTATION_PROCESSOR))
+        || name.startsWith(KAPT);
+  }
+
   /** Write the buck file for the java_annotation_processor rules. */
   public Map<Path, List<Scope>> getBasePathToExternalDependencyScopeMap() {
     Path rootPath = project.getRootDir().toPath();
@@ -188,6 +323,11 @@ public class AnnotationProcessorCache {
   }
 
   public void finalizeProcessors() {
+    LOG.info("Processor scopes: {} hits, {} misses", hits.get(), misses.get());
+    OkBuckProfiler profiler = ProjectUtil.getProfiler(project);
+    profiler.count(OkBuckProfiler.PROCESSOR_SCOPE_HITS, hits.get());
+    profiler.count(OkBuckProfiler.PROCESSOR_SCOPE_MISSES, misses.get());
+
     List<Scope> targetScopes =
         dependencyToScopeMap
             .values()
@@ -205,26 +345,46 @@ public class AnnotationProcessorCache {
 
     ImmutableMap.Builder<Dependency, Scope> currentBuilder = new ImmutableMap.Builder<>();
 
-    // Creates a scope using a detached configuration and the given dependency set.
-    Function<Set<Dependency>, Scope> computeScope =
-        depSet -> {
-          Dependency[] depArray = depSet.toArray(new Dependency[0]);
-          Configuration detached = project.getConfigurations().detachedConfiguration(depArray);
-          return Scope.builder(project).configuration(detached).build();
-        };
-
-    // Creates one scope per dependency if not already
-    // found and adds it to the current builder.
+    // Creates one scope per dependency if not already found or
+    // prepared and adds it to the current builder.
     dependencies.forEach(
         dependency -> {
           ImmutableSet<Dependency> dependencySet = ImmutableSet.of(dependency);
-          Scope scope = dependencyToScopeMap.computeIfAbsent(dependencySet, computeScope);
+          @Var Scope scope = dependencyToScopeMap.get(dependencySet);
+          if (scope != null) {
+            hits.incrementAndGet();
+          } else {
+            scope =
+                dependencyToScopeMap.computeIfAbsent(
+                    dependencySet,
+                    depSet -> {
+                      Scope prepared = preparedScopes.remove(depSet);
+                      if (prepared != null) {
+                        hits.incrementAndGet();
+                        ProjectUtil.getDependencyCache(project)
+                            .register(
+                                prepared.getExternalDeps(false), prepared.getRawDependencies());
+                        return prepared;
+                      }
+                      misses.incrementAndGet();
+                      return computeScope(
+                          project, depSet, ProjectUtil.getDependencyCache(project));
+                    });
+          }
           currentBuilder.put(dependency, scope);
         });
 
     return currentBuilder.build();
   }
 
+  // Creates a scope using a detached configuration and the given dependency set.
+  private static Scope computeScope(
+      Project project, Set<Dependency> dependencySet, DependencyCache depCache) {
+    Dependency[] depArray = dependencySet.toArray(new Dependency[0]);
+    Configuration detached = project.getConfigurations().detachedConfiguration(depArray);
+    return Scope.builder(project).configuration(detached).depCache(depCache).build();
+  }
+
   private ImmutableMap<Set<Dependency>, Scope> createAutoValueProcessorScopes(
       Project project, Set<String> configurations) {
     ImmutableMap.Builder<Set<Dependency>, Scope> currentBuilder = new ImmutableMap.Builder<>();
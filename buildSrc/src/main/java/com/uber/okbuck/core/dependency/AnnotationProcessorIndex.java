@@ -0,0 +1,163 @@
+package com.uber.okbuck.core.dependency;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.uber.okbuck.core.util.DaemonState;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the annotation processors and auto value extensions declared by dependency jars, persisted
+ * across runs under {@code .okbuck/state}. Jars are keyed by the checksum gradle stores them under
+ * along with their size and modification time, so each artifact is only scanned once.
+ *
+ * <p>Only the jars looked up in a run are persisted, entries of dependencies which went away are
+ * dropped.
+ */
+public final class AnnotationProcessorIndex {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AnnotationProcessorIndex.class);
+
+  private static final String PROCESSOR_SERVICE =
+      "META-INF/services/javax.annotation.processing.Processor";
+  private static final String AUTO_VALUE_EXTENSION_SERVICE =
+      "META-INF/services/com.google.auto.value.extension.AutoValueExtension";
+
+  private final File stateFile;
+  private final Map<String, IndexEntry> lastEntries;
+  private final Map<String, IndexEntry> currentEntries = new ConcurrentHashMap<>();
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  public AnnotationProcessorIndex(File stateFile) {
+    this.stateFile = stateFile;
+    this.lastEntries = DaemonState.read(stateFile, () -> readEntries(stateFile));
+  }
+
+  /**
+   * Get the annotation processor classes declared by a jar.
+   *
+   * @param jar The jar to look up
+   * @return The annotation processor classes listed in the jar's service file
+   */
+  public Set<String> getProcessors(File jar) {
+    return ImmutableSet.copyOf(get(jar).processors);
+  }
+
+  /**
+   * Check if a jar declares an auto value extension.
+   *
+   * @param jar The jar to look up
+   * @return Whether the jar lists any auto value extension in its service file
+   */
+  public boolean hasAutoValueExtension(File jar) {
+    return get(jar).autoValueExtension;
+  }
+
+  /** Persists the entries of all jars looked up in this run. */
+  public void persist() {
+    LOG.info("Annotation processor index: {} hits, {} misses", hits.get(), misses.get());
+    try {
+      Files.createDirectories(stateFile.toPath().toAbsolutePath().getParent());
+      Map<String, IndexEntry> entries = new TreeMap<>(currentEntries);
+      try (Writer writer = Files.newBufferedWriter(stateFile.toPath(), UTF_8)) {
+        new Gson().toJson(entries, writer);
+      }
+      DaemonState.written(stateFile, entries);
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't persist annotation processor index", e);
+    }
+  }
+
+  private IndexEntry get(File jar) {
+    return currentEntries.computeIfAbsent(
+        key(jar),
+        key -> {
+          IndexEntry last = lastEntries.get(key);
+          if (last != null) {
+            hits.incrementAndGet();
+            return last;
+          }
+          misses.incrementAndGet();
+          return scan(jar);
+        });
+  }
+
+  private static String key(File jar) {
+    return OExternalDependency.getGradleSha(jar)
+        + "/"
+        + jar.getName()
+        + ":"
+        + jar.length()
+        + ":"
+        + jar.lastModified();
+  }
+
+  private static IndexEntry scan(File jar) {
+    try (JarFile jarFile = new JarFile(jar)) {
+      IndexEntry entry = new IndexEntry();
+      entry.processors = readServices(jarFile, PROCESSOR_SERVICE);
+      entry.autoValueExtension = !readServices(jarFile, AUTO_VALUE_EXTENSION_SERVICE).isEmpty();
+      return entry;
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't read annotation processors of " + jar, e);
+    }
+  }
+
+  private static List<String> readServices(JarFile jarFile, String service) throws IOException {
+    ZipEntry entry = jarFile.getEntry(service);
+    if (entry == null) {
+      return ImmutableList.of();
+    }
+
+    try (InputStream stream = jarFile.getInputStream(entry)) {
+      return Arrays.stream(IOUtils.toString(stream, UTF_8).split("\\n"))
+          .map(String::trim)
+          // filter out comments and empty lines
+          .filter(line -> !line.startsWith("#") && !line.isEmpty())
+          .collect(ImmutableList.toImmutableList());
+    }
+  }
+
+  private static Map<String, IndexEntry> readEntries(File stateFile) {
+    if (!stateFile.isFile()) {
+      return new HashMap<>();
+    }
+
+    try (Reader reader = Files.newBufferedReader(stateFile.toPath(), UTF_8)) {
+      Map<String, IndexEntry> entries =
+          new Gson().fromJson(reader, new TypeToken<HashMap<String, IndexEntry>>() {}.getType());
+      return entries != null ? entries : new HashMap<>();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable annotation processor index {}", stateFile, e);
+      return new HashMap<>();
+    }
+  }
+
+  private static final class IndexEntry {
+    private List<String> processors = ImmutableList.of();
+    private boolean autoValueExtension;
+  }
+}
@@ -0,0 +1,150 @@
+package com.uber.okbuck.core.dependency;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.errorprone.annotations.Var;
+import com.uber.okbuck.core.dependency.checksum.ChecksumProvider;
+import com.uber.okbuck.core.util.OkBuckProfiler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the sha256sums of external dependency artifacts. Known checksums are taken from the
+ * checksum providers first, only the remaining artifacts are hashed in parallel.
+ */
+public final class ChecksumService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ChecksumService.class);
+
+  // Files are mapped in chunks to stay within the limits of a single mapped buffer
+  private static final long MAP_CHUNK_SIZE = 64L * 1024 * 1024;
+  private static final int PROGRESS_STEPS = 10;
+
+  private final List<ChecksumProvider> checksumProviders;
+  private final int parallelism;
+  private final OkBuckProfiler profiler;
+
+  public ChecksumService(
+      List<ChecksumProvider> checksumProviders, int parallelism, OkBuckProfiler profiler) {
+    this.checksumProviders = checksumProviders;
+    this.parallelism = parallelism;
+    this.profiler = profiler;
+  }
+
+  /**
+   * Computes the sha256sum of the files which are not present in the cache yet and adds them to
+   * it. Files are keyed by {@link OExternalDependency#getSha256Key(File)}, requests for the same
+   * key are only hashed once.
+   *
+   * @param files The files to compute the sha256sum of
+   * @param sha256Cache The cache to look up and update
+   */
+  public void computeIfAbsent(Collection<File> files, Sha256Cache sha256Cache) {
+    Map<String, File> missing = new LinkedHashMap<>();
+    files.forEach(
+        file -> {
+          String key = OExternalDependency.getSha256Key(file);
+          if (!sha256Cache.contains(key)) {
+            missing.putIfAbsent(key, file);
+          }
+        });
+
+    missing
+        .entrySet()
+        .removeIf(
+            entry -> {
+              String sha256 = getProvidedSha256(entry.getValue());
+              if (sha256 != null) {
+                sha256Cache.put(entry.getKey(), sha256);
+                return true;
+              }
+              return false;
+            });
+
+    if (missing.isEmpty()) {
+      return;
+    }
+
+    int total = missing.size();
+    int progressStep = Math.max(1, total / PROGRESS_STEPS);
+    AtomicInteger done = new AtomicInteger();
+    LOG.info("Computing sha256sum of {} files on {} threads", total, parallelism);
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, total));
+    try (OkBuckProfiler.Phase ignored = profiler.start("computeSha256")) {
+      Map<String, CompletableFuture<String>> futures =
+          missing
+              .entrySet()
+              .stream()
+              .collect(
+                  Collectors.toMap(
+                      Map.Entry::getKey,
+                      entry ->
+                          CompletableFuture.supplyAsync(
+                              () -> {
+                                String sha256 = sha256(entry.getValue());
+                                profiler.count(OkBuckProfiler.FILES_HASHED, 1);
+                                profiler.count(
+                                    OkBuckProfiler.BYTES_HASHED, entry.getValue().length());
+                                int count = done.incrementAndGet();
+                                if (count % progressStep == 0 || count == total) {
+                                  LOG.info("Computed sha256sum of {}/{} files", count, total);
+                                }
+                                return sha256;
+                              },
+                              executor)));
+
+      futures.forEach((key, future) -> sha256Cache.put(key, future.join()));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Nullable
+  private String getProvidedSha256(File file) {
+    for (ChecksumProvider provider : checksumProviders) {
+      String sha256 = provider.sha256(file);
+      if (sha256 != null) {
+        return sha256;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Computes the sha256sum of a file reading it through memory mapped buffers.
+   *
+   * @param file The file to hash
+   * @return The hex encoded sha256sum
+   */
+  public static String sha256(File file) {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      Hasher hasher = Hashing.sha256().newHasher();
+      long size = channel.size();
+      @Var long position = 0;
+      while (position < size) {
+        long length = Math.min(MAP_CHUNK_SIZE, size - position);
+        hasher.putBytes(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+        position += length;
+      }
+      return hasher.hash().toString();
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          String.format("Failed to calculate shaSum256 of %s", file), e);
+    }
+  }
+}
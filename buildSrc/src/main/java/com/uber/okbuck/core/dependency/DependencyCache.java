@@ -1,24 +1,17 @@
 package com.uber.okbuck.core.dependency;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableSet;
 import com.uber.okbuck.core.manager.DependencyManager;
 import com.uber.okbuck.core.util.ProjectUtil;
 import com.uber.okbuck.extension.ExternalDependenciesExtension;
 import com.uber.okbuck.extension.JetifierExtension;
 import com.uber.okbuck.extension.OkBuckExtension;
-import java.io.File;
-import java.io.IOException;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
-import org.apache.commons.io.IOUtils;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.DependencySet;
@@ -32,7 +25,9 @@ public class DependencyCache {
   private final Project rootProject;
   private final DependencyManager dependencyManager;
   private final boolean skipPrebuilt;
-  private final Map<VersionlessDependency, OExternalDependency> forcedDeps = new HashMap<>();
+  // Whether picked dependencies are registered with the dependency manager right away
+  private final boolean registering;
+  private final Map<VersionlessDependency, OExternalDependency> forcedDeps;
 
   public DependencyCache(
       Project project,
@@ -42,6 +37,8 @@ public class DependencyCache {
     this.rootProject = project.getRootProject();
     this.dependencyManager = dependencyManager;
     this.skipPrebuilt = skipPrebuilt;
+    this.registering = true;
+    this.forcedDeps = new HashMap<>();
 
     if (forcedConfiguration != null) {
       build(forcedConfiguration)
@@ -66,24 +63,72 @@ public class DependencyCache {
     this(project, dependencyManager, skipPrebuilt, null);
   }
 
+  private DependencyCache(DependencyCache cache) {
+    this.rootProject = cache.rootProject;
+    this.dependencyManager = cache.dependencyManager;
+    this.skipPrebuilt = cache.skipPrebuilt;
+    this.registering = false;
+    this.forcedDeps = cache.forcedDeps;
+  }
+
+  /**
+   * Returns a cache which picks the same dependencies as this one, but doesn't register anything
+   * with the dependency manager. Used for scopes which may never be asked for, whose dependencies
+   * are registered with {@link #register(Collection, Set)} once they are.
+   */
+  public DependencyCache withoutRegistration() {
+    return new DependencyCache(this);
+  }
+
+  /**
+   * Registers dependencies picked by a cache without registration with the dependency manager.
+   *
+   * @param dependencies The picked external dependencies
+   * @param rawDependencies The raw dependencies they were resolved from
+   */
+  public void register(
+      Collection<OExternalDependency> dependencies, Set<ExternalDependency> rawDependencies) {
+    dependencies.forEach(dependency -> dependencyManager.addDependency(dependency, skipPrebuilt));
+    dependencyManager.addRawDependencies(rawDependencies);
+  }
+
   public final OExternalDependency get(OExternalDependency externalDependency) {
     LOG.info("Requested dependency {}", externalDependency);
     OExternalDependency dependency =
         forcedDeps.getOrDefault(externalDependency.getVersionless(), externalDependency);
     LOG.info("Picked dependency {}", dependency);
 
-    dependencyManager.addDependency(dependency, skipPrebuilt);
+    if (registering) {
+      dependencyManager.addDependency(dependency, skipPrebuilt);
+    }
 
     return dependency;
   }
 
   public final void addDependencies(DependencySet dependencySet) {
-    this.dependencyManager.addRawDependencies(
-        dependencySet
-            .withType(ExternalDependency.class)
-            .stream()
-            .filter(dependency -> dependency.getGroup() != null && dependency.getVersion() != null)
-            .collect(Collectors.toSet()));
+    if (registering) {
+      this.dependencyManager.addRawDependencies(rawDependencies(dependencySet));
+    }
+  }
+
+  /** Whether dependencies of this cache are registered to skip prebuilt rules. */
+  public boolean isSkipPrebuilt() {
+    return skipPrebuilt;
+  }
+
+  /**
+   * Get the raw external dependencies of a dependency set which are registered to resolve third
+   * party dependencies.
+   *
+   * @param dependencySet The dependency set
+   * @return The external dependencies with a group and version
+   */
+  public static Set<ExternalDependency> rawDependencies(DependencySet dependencySet) {
+    return dependencySet
+        .withType(ExternalDependency.class)
+        .stream()
+        .filter(dependency -> dependency.getGroup() != null && dependency.getVersion() != null)
+        .collect(Collectors.toSet());
   }
 
   /**
@@ -95,18 +140,8 @@ public class DependencyCache {
   public Set<String> getAnnotationProcessors(OExternalDependency externalDependency) {
     OExternalDependency dependency =
         forcedDeps.getOrDefault(externalDependency.getVersionless(), externalDependency);
-
-    try {
-      String processors =
-          getJarFileContent(
-              dependency.getRealDependencyFile(),
-              "META-INF/services/javax.annotation.processing.Processor");
-
-      return ImmutableSet.copyOf(processors.split(","));
-
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
-    }
+    return ProjectUtil.getAnnotationProcessorIndex(rootProject)
+        .getProcessors(dependency.getRealDependencyFile());
   }
 
   /**
@@ -118,38 +153,8 @@ public class DependencyCache {
   public boolean hasAutoValueExtension(OExternalDependency externalDependency) {
     OExternalDependency dependency =
         forcedDeps.getOrDefault(externalDependency.getVersionless(), externalDependency);
-    try {
-      String extensions =
-          getJarFileContent(
-              dependency.getRealDependencyFile(),
-              "META-INF/services/com.google.auto.value.extension.AutoValueExtension");
-      return !extensions.isEmpty();
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
-    }
-  }
-
-  private static String getJarFileContent(File dependencyFile, String filePathString)
-      throws IOException {
-    String content;
-
-    JarFile jarFile = new JarFile(dependencyFile);
-    JarEntry jarEntry = (JarEntry) jarFile.getEntry(filePathString);
-    if (jarEntry != null) {
-      List<String> entries =
-          Arrays.stream(
-                  IOUtils.toString(jarFile.getInputStream(jarEntry), "UTF-8").trim().split("\\n"))
-              .filter(
-                  entry -> {
-                    return !entry.startsWith("#")
-                        && !entry.trim().isEmpty(); // filter out comments and empty lines
-                  })
-              .collect(Collectors.toList());
-      content = String.join(",", entries);
-    } else {
-      content = "";
-    }
-    return content;
+    return ProjectUtil.getAnnotationProcessorIndex(rootProject)
+        .hasAutoValueExtension(dependency.getRealDependencyFile());
   }
 
   /**
@@ -4,6 +4,7 @@ import com.google.common.base.Strings;
 import com.uber.okbuck.extension.ExternalDependenciesExtension;
 import com.uber.okbuck.extension.JetifierExtension;
 import java.io.File;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -11,6 +12,8 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.apache.commons.io.FilenameUtils;
@@ -31,6 +34,9 @@ public final class DependencyFactory {
   private final Map<OResolvedDependency, OExternalDependency> externalDependencyCache =
       new HashMap<>();
 
+  private final Map<VersionlessDependency, Integer> versionlessIds = new ConcurrentHashMap<>();
+  private final AtomicInteger nextVersionlessId = new AtomicInteger();
+
   public DependencyFactory() {}
 
   /**
@@ -79,11 +85,17 @@ public final class DependencyFactory {
     if (group.equals(LOCAL_GROUP) || isLocalDependency(dependencyFile.getAbsolutePath())) {
       externalDependency =
           new LocalOExternalDependency(
-              resolvedDependency, externalDependenciesExtension, jetifierExtension);
+              resolvedDependency,
+              versionlessId(versionlessDependency),
+              externalDependenciesExtension,
+              jetifierExtension);
     } else {
       externalDependency =
           new OExternalDependency(
-              resolvedDependency, externalDependenciesExtension, jetifierExtension);
+              resolvedDependency,
+              versionlessId(versionlessDependency),
+              externalDependenciesExtension,
+              jetifierExtension);
     }
 
     externalDependencyCache.put(resolvedDependency, externalDependency);
@@ -116,6 +128,22 @@ public final class DependencyFactory {
             jetifierExtension);
   }
 
+  /**
+   * Returns the id of a versionless dependency. Ids are dense and stay the same for the whole run,
+   * so sets of versionless dependencies can be stored as bitsets.
+   */
+  public int versionlessId(VersionlessDependency versionlessDependency) {
+    return versionlessIds.computeIfAbsent(
+        versionlessDependency, versionless -> nextVersionlessId.getAndIncrement());
+  }
+
+  /** Returns the set of the given versionless dependencies. */
+  public VersionlessSet versionlessSet(Collection<VersionlessDependency> versionlessDependencies) {
+    BitSet ids = new BitSet();
+    versionlessDependencies.forEach(versionless -> ids.set(versionlessId(versionless)));
+    return new VersionlessSet(ids);
+  }
+
   public synchronized Set<VersionlessDependency> fromDependency(ExternalDependency dependency) {
     if (unresolvedToVersionless.containsKey(dependency)) {
       return unresolvedToVersionless.get(dependency);
@@ -202,7 +230,7 @@ public final class DependencyFactory {
         .collect(Collectors.toSet());
   }
 
-  public void finalizeDependencies() {
+  public synchronized void finalizeDependencies() {
     unresolvedToVersionless.clear();
     externalDependencyCache.clear();
   }
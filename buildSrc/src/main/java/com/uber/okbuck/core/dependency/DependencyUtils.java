@@ -2,13 +2,10 @@ package com.uber.okbuck.core.dependency;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 import com.uber.okbuck.core.util.ProjectUtil;
 import com.uber.okbuck.extension.ExternalDependenciesExtension;
 import com.uber.okbuck.extension.JetifierExtension;
 import java.io.File;
-import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -79,15 +76,6 @@ public final class DependencyUtils {
     return FilenameUtils.isExtension(file.getName(), ALLOWED_EXTENSIONS);
   }
 
-  public static String shaSum256(File file) {
-    try {
-      return Files.asByteSource(file).hash(Hashing.sha256()).toString();
-    } catch (IOException e) {
-      throw new IllegalStateException(
-          String.format("Failed to calculate shaSum256 of %s", file), e);
-    }
-  }
-
   @Nullable
   static String getModuleClassifier(String fileNameString, @Nullable String version) {
     if (version == null) {
@@ -49,8 +49,9 @@ public final class LocalOExternalDependency extends OExternalDependency {
 
   LocalOExternalDependency(
       OResolvedDependency resolvedDependency,
+      int versionlessId,
       ExternalDependenciesExtension externalDependenciesExtension,
       JetifierExtension jetifierExtension) {
-    super(resolvedDependency, externalDependenciesExtension, jetifierExtension);
+    super(resolvedDependency, versionlessId, externalDependenciesExtension, jetifierExtension);
   }
 }
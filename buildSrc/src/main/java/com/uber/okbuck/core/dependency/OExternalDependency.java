@@ -25,9 +25,14 @@ import org.gradle.api.artifacts.ExcludeRule;
  */
 public class OExternalDependency {
   private static final String SOURCE_FILE = "-sources.jar";
+  private static final String SHARD_PREFIX = "shard";
+  private static final String GROUP_DELIMITER = "--";
+  private static final String GRADLE_FILES_CACHE = "files-2.1";
 
   private final OResolvedDependency base;
-  private final Path cachePath;
+  private final int versionlessId;
+  private final Path targetPath;
+  private final String targetNamePrefix;
 
   private boolean enableJetifier;
   private Set<OExternalDependency> dependencies = new HashSet<>();
@@ -88,6 +93,11 @@ public class OExternalDependency {
     return this.base.versionless();
   }
 
+  /** Returns the id of the versionless dependency, assigned by the {@link DependencyFactory}. */
+  public int getVersionlessId() {
+    return versionlessId;
+  }
+
   /** Returns the dependency as a Gradle Dependency. */
   public Dependency getAsGradleDependency() {
     return this.base.asGradleDependency();
@@ -117,6 +127,20 @@ public class OExternalDependency {
     return file.getParentFile().getName();
   }
 
+  /**
+   * Returns the key of a file in the sha256 cache. Gradle stores cached artifacts in a directory
+   * named after their sha1, which is used as is. Other files, like artifacts of local maven repos,
+   * are keyed by their path since their directory only names the version.
+   */
+  public static String getSha256Key(File file) {
+    Path path = file.toPath().toAbsolutePath();
+    int count = path.getNameCount();
+    if (count >= 6 && path.getName(count - 6).toString().equals(GRADLE_FILES_CACHE)) {
+      return getGradleSha(file);
+    }
+    return path.normalize().toString();
+  }
+
   /** Returns the packaging of the the dependency: jar, aar, pex */
   public String getPackaging() {
     return this.base.packaging();
@@ -129,22 +153,22 @@ public class OExternalDependency {
 
   /** Returns the target name of the dependency. */
   public String getTargetName() {
-    return this.base.targetName() + "." + getPackaging();
+    return targetNamePrefix + this.base.targetName() + "." + getPackaging();
   }
 
   /** Returns the target name of the dependency without packaging. */
   public String getBaseTargetName() {
-    return this.base.targetName();
+    return targetNamePrefix + this.base.targetName();
   }
 
   /** Returns the versionless target name of the dependency. */
   public String getVersionlessTargetName() {
-    return this.base.versionlessTargetName() + "." + getPackaging();
+    return targetNamePrefix + this.base.versionlessTargetName() + "." + getPackaging();
   }
 
   /** Returns the target path of the dependency. */
   public String getTargetPath() {
-    return cachePath.resolve(this.base.basePath()).toString();
+    return targetPath.toString();
   }
 
   /** Returns the cached file name of the sources jar file. */
@@ -196,11 +220,11 @@ public class OExternalDependency {
         .collect(Collectors.toSet());
   }
 
-  public void updateFirstLevel(boolean firstLevel) {
+  public synchronized void updateFirstLevel(boolean firstLevel) {
     this.firstLevel = this.firstLevel || firstLevel;
   }
 
-  public boolean isFirstLevel() {
+  public synchronized boolean isFirstLevel() {
     return this.firstLevel;
   }
 
@@ -234,16 +258,32 @@ public class OExternalDependency {
 
   protected OExternalDependency(
       OResolvedDependency resolvedDependency,
+      int versionlessId,
       ExternalDependenciesExtension externalDependenciesExtension,
       JetifierExtension jetifierExtension) {
 
     this.base = resolvedDependency;
+    this.versionlessId = versionlessId;
     this.enableJetifier =
         jetifierExtension.shouldJetify(
             resolvedDependency.versionless().group(),
             resolvedDependency.versionless().name(),
             getPackaging());
-    this.cachePath = Paths.get(externalDependenciesExtension.getCache());
+    Path cachePath = Paths.get(externalDependenciesExtension.getCache());
+
+    // Sharded packages hold dependencies of many groups, so names get qualified by the group
+    if (externalDependenciesExtension.shardingEnabled()) {
+      VersionlessDependency versionless = resolvedDependency.versionless();
+      int shard =
+          Math.floorMod(
+              (versionless.group() + ":" + versionless.name()).hashCode(),
+              externalDependenciesExtension.getShards());
+      this.targetPath = cachePath.resolve(SHARD_PREFIX + shard);
+      this.targetNamePrefix = versionless.group() + GROUP_DELIMITER;
+    } else {
+      this.targetPath = cachePath.resolve(resolvedDependency.basePath());
+      this.targetNamePrefix = "";
+    }
   }
 
   public static Set<OExternalDependency> filterAar(Set<OExternalDependency> dependencies) {
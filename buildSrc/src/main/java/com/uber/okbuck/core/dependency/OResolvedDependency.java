@@ -49,6 +49,11 @@ public abstract class OResolvedDependency {
     public abstract OResolvedDependency build();
   }
 
+  // Dependencies are hashed on every lookup of the maps keyed by them, like the label registry
+  @Memoized
+  @Override
+  public abstract int hashCode();
+
   @Override
   public final String toString() {
     return this.getMavenCoords() + " -> " + realDependencyFile().toString();
@@ -0,0 +1,169 @@
+package com.uber.okbuck.core.dependency;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.errorprone.annotations.Var;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.uber.okbuck.core.model.base.Scope;
+import com.uber.okbuck.core.util.ProjectCache;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.ExternalDependency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves raw dependencies grouped by their group and version. Each group is resolved in its own
+ * configuration to keep versions of different groups from being conflict resolved together.
+ *
+ * <p>Groups are resolved by one worker per thread of a dedicated pool, which pull them from a
+ * shared queue, costliest first, the cost of a group being estimated from the time it took to
+ * resolve in previous runs. Workers that finish cheap groups early take over the remaining ones,
+ * so a mis-estimated group only holds up its own worker. Each worker is bound to a different
+ * project, since configurations of a project can't be created concurrently.
+ */
+public final class ResolutionScheduler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResolutionScheduler.class);
+
+  private static final String CONFIGURATION_PREFIX = "resolve__";
+
+  // Cost in ms assumed per dependency of a group which was never resolved before
+  private static final long DEFAULT_DEPENDENCY_COST = 100;
+
+  private final File costsFile;
+  private final int parallelism;
+  private final Map<String, Long> lastCosts;
+  private final Map<String, Long> currentCosts = new ConcurrentHashMap<>();
+
+  public ResolutionScheduler(File costsFile, int parallelism) {
+    this.costsFile = costsFile;
+    this.parallelism = parallelism;
+    this.lastCosts = readCosts(costsFile);
+  }
+
+  /**
+   * Resolves the given dependencies on the given projects.
+   *
+   * @param groups Dependencies grouped by their group and version
+   * @param projects Projects on which the configurations are created
+   */
+  public void resolve(Map<String, List<ExternalDependency>> groups, List<Project> projects) {
+    if (groups.isEmpty()) {
+      return;
+    }
+
+    Queue<String> queue =
+        groups
+            .keySet()
+            .stream()
+            .sorted(
+                Comparator.comparingLong((String key) -> cost(key, groups.get(key)))
+                    .reversed()
+                    .thenComparing(Comparator.naturalOrder()))
+            .collect(Collectors.toCollection(ConcurrentLinkedQueue::new));
+
+    int workers = Math.min(Math.max(1, parallelism), Math.min(projects.size(), groups.size()));
+    ForkJoinPool pool = new ForkJoinPool(workers);
+    try {
+      List<ForkJoinTask<?>> tasks = new ArrayList<>();
+      for (int i = 0; i < workers; i++) {
+        Project project = projects.get(i);
+        tasks.add(pool.submit(() -> resolve(project, queue, groups)));
+      }
+      tasks.forEach(ForkJoinTask::join);
+    } finally {
+      pool.shutdown();
+    }
+
+    persistCosts();
+  }
+
+  /** Resolves groups taken from the queue on the given project until the queue is empty. */
+  private void resolve(
+      Project project, Queue<String> queue, Map<String, List<ExternalDependency>> groups) {
+    long start = System.nanoTime();
+    if (project != project.getRootProject()) {
+      ProjectCache.initScopeCache(project);
+    }
+
+    @Var int resolved = 0;
+    @Var long estimated = 0;
+    try {
+      @Var String key;
+      while ((key = queue.poll()) != null) {
+        long groupStart = System.nanoTime();
+        Configuration config =
+            project
+                .getConfigurations()
+                .maybeCreate(CONFIGURATION_PREFIX + key.replace(".", "__").replace(":", "__"));
+        config.getDependencies().addAll(groups.get(key));
+        Scope.builder(project).configuration(config).build();
+        currentCosts.put(key, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - groupStart));
+        resolved++;
+        estimated += cost(key, groups.get(key));
+      }
+    } finally {
+      if (project != project.getRootProject()) {
+        ProjectCache.resetScopeCache(project);
+      }
+    }
+
+    LOG.info(
+        "Resolved {} groups on {} in {} ms, estimated {} ms",
+        resolved,
+        project.getPath(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+        estimated);
+  }
+
+  private long cost(String key, List<ExternalDependency> dependencies) {
+    Long cost = lastCosts.get(key);
+    return cost != null ? cost : DEFAULT_DEPENDENCY_COST * dependencies.size();
+  }
+
+  private void persistCosts() {
+    try {
+      Files.createDirectories(costsFile.toPath().toAbsolutePath().getParent());
+      try (Writer writer = Files.newBufferedWriter(costsFile.toPath(), UTF_8)) {
+        new Gson().toJson(new TreeMap<>(currentCosts), writer);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't persist resolution costs", e);
+    }
+  }
+
+  private static Map<String, Long> readCosts(File costsFile) {
+    if (!costsFile.isFile()) {
+      return new HashMap<>();
+    }
+
+    try (Reader reader = Files.newBufferedReader(costsFile.toPath(), UTF_8)) {
+      Map<String, Long> costs =
+          new Gson().fromJson(reader, new TypeToken<HashMap<String, Long>>() {}.getType());
+      return costs != null ? costs : new HashMap<>();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable resolution costs {}", costsFile, e);
+      return new HashMap<>();
+    }
+  }
+}
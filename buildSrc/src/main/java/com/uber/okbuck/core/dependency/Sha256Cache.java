@@ -0,0 +1,290 @@
+package com.uber.okbuck.core.dependency;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.errorprone.annotations.Var;
+import com.uber.okbuck.core.util.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of the sha256sums of external dependency artifacts.
+ *
+ * <p>The cache is stored in a compact binary file. It starts with a header and a section of
+ * records sorted by key, which is read as is into a single buffer and binary searched on lookup.
+ * New entries are appended as unsorted records at the end of the file. Once the appended records
+ * grow large enough, the file is compacted back into a single sorted section.
+ *
+ * <p>The sorted section is not memory mapped since a mapped file can't be replaced on windows
+ * until the mapping is garbage collected, which would fail compaction.
+ *
+ * <p>Each record holds the first bytes of the sha256 of its key followed by the raw sha256 value,
+ * which keeps all records the same size.
+ */
+public final class Sha256Cache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Sha256Cache.class);
+
+  private static final byte[] MAGIC = "OKSHA256".getBytes(UTF_8);
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = MAGIC.length + 2 * Integer.BYTES;
+
+  private static final int KEY_SIZE = 20;
+  private static final int VALUE_SIZE = 32;
+  private static final int RECORD_SIZE = KEY_SIZE + VALUE_SIZE;
+
+  private static final int MIN_COMPACTION_RECORDS = 1024;
+  private static final int COMPACTION_RATIO = 8;
+
+  private static final Comparator<byte[]> KEY_COMPARATOR =
+      UnsignedBytes.lexicographicalComparator();
+
+  private final File file;
+  @Nullable private final ByteBuffer sorted;
+  private final int sortedCount;
+  // End of the last complete record in the file, where new records are appended
+  private long recordsEnd;
+
+  // Records appended to the file after its sorted section
+  private final Map<HashCode, byte[]> appended = new HashMap<>();
+  // Records added in this run which are not persisted yet
+  private final Map<HashCode, byte[]> pending = new LinkedHashMap<>();
+
+  private Sha256Cache(File file, @Nullable ByteBuffer sorted, int sortedCount, long recordsEnd) {
+    this.file = file;
+    this.sorted = sorted;
+    this.sortedCount = sortedCount;
+    this.recordsEnd = recordsEnd;
+  }
+
+  /**
+   * Opens the cache stored in the given file. A missing or unreadable file results in an empty
+   * cache. Caches stored in the legacy json format are migrated.
+   *
+   * @param file The file storing the cache
+   * @return The opened cache
+   */
+  public static Sha256Cache open(File file) {
+    if (!file.isFile()) {
+      return new Sha256Cache(file, null, 0, 0);
+    }
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      if (size < HEADER_SIZE || channel.read(header, 0) != HEADER_SIZE || !hasMagic(header)) {
+        return migrate(file);
+      }
+
+      header.position(MAGIC.length);
+      int version = header.getInt();
+      int sortedCount = header.getInt();
+      long sortedEnd = HEADER_SIZE + (long) sortedCount * RECORD_SIZE;
+      if (version != VERSION || sortedEnd > size) {
+        LOG.warn("Ignoring unsupported sha256 cache {}", file);
+        return new Sha256Cache(file, null, 0, 0);
+      }
+
+      ByteBuffer sorted = ByteBuffer.allocate((int) (sortedEnd - HEADER_SIZE));
+      while (sorted.hasRemaining()) {
+        if (channel.read(sorted, HEADER_SIZE + sorted.position()) < 0) {
+          LOG.warn("Ignoring truncated sha256 cache {}", file);
+          return new Sha256Cache(file, null, 0, 0);
+        }
+      }
+      sorted.flip();
+
+      // A partially written trailing record is ignored, and dropped before appending again
+      long appendedCount = (size - sortedEnd) / RECORD_SIZE;
+      Sha256Cache cache =
+          new Sha256Cache(file, sorted, sortedCount, sortedEnd + appendedCount * RECORD_SIZE);
+      ByteBuffer records = ByteBuffer.allocate((int) (appendedCount * RECORD_SIZE));
+      channel.read(records, sortedEnd);
+      records.flip();
+      while (records.remaining() >= RECORD_SIZE) {
+        byte[] key = new byte[KEY_SIZE];
+        byte[] value = new byte[VALUE_SIZE];
+        records.get(key).get(value);
+        cache.appended.put(HashCode.fromBytes(key), value);
+      }
+      return cache;
+    } catch (IOException e) {
+      LOG.warn("Ignoring unreadable sha256 cache {}", file, e);
+      return new Sha256Cache(file, null, 0, 0);
+    }
+  }
+
+  private static Sha256Cache migrate(File file) {
+    LOG.info("Migrating sha256 cache {} from json to the binary format", file);
+    Sha256Cache cache = new Sha256Cache(file, null, 0, 0);
+    try {
+      Map<String, String> legacy = FileUtil.readMapFromJsonFile(file);
+      if (legacy != null) {
+        legacy.forEach(cache::put);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable sha256 cache {}", file, e);
+    }
+    return cache;
+  }
+
+  private static boolean hasMagic(ByteBuffer header) {
+    byte[] magic = new byte[MAGIC.length];
+    header.flip();
+    header.get(magic);
+    return Arrays.equals(magic, MAGIC);
+  }
+
+  public synchronized boolean contains(String key) {
+    return get(key) != null;
+  }
+
+  @Nullable
+  public synchronized String get(String key) {
+    HashCode keyHash = keyHash(key);
+
+    @Var byte[] value = pending.get(keyHash);
+    if (value == null) {
+      value = appended.get(keyHash);
+    }
+    if (value == null) {
+      value = getSorted(keyHash.asBytes());
+    }
+    return value != null ? HashCode.fromBytes(value).toString() : null;
+  }
+
+  public synchronized void put(String key, String sha256) {
+    if (!sha256.equals(get(key))) {
+      pending.put(keyHash(key), HashCode.fromString(sha256).asBytes());
+    }
+  }
+
+  /**
+   * Persists the entries added since the cache was opened. They are appended to the file, unless
+   * enough records were appended to warrant compacting the whole file.
+   */
+  public synchronized void persist() {
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    try {
+      Files.createDirectories(file.toPath().toAbsolutePath().getParent());
+      if (sorted == null
+          || appended.size() + pending.size()
+              > Math.max(MIN_COMPACTION_RECORDS, sortedCount / COMPACTION_RATIO)) {
+        compact();
+      } else {
+        ByteBuffer records = ByteBuffer.allocate(pending.size() * RECORD_SIZE);
+        pending.forEach((key, value) -> records.put(key.asBytes()).put(value));
+        records.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+          // Records written after a partial one would be misaligned and lost on the next open
+          channel.truncate(recordsEnd);
+          while (records.hasRemaining()) {
+            recordsEnd += channel.write(records, recordsEnd);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't persist sha256 cache " + file, e);
+    }
+
+    appended.putAll(pending);
+    pending.clear();
+  }
+
+  /** Rewrites the whole cache into a single sorted section. */
+  private void compact() throws IOException {
+    Map<HashCode, byte[]> records = new HashMap<>();
+    ByteBuffer sortedRecords = sorted;
+    if (sortedRecords != null) {
+      for (int index = 0; index < sortedCount; index++) {
+        byte[] key = new byte[KEY_SIZE];
+        byte[] value = new byte[VALUE_SIZE];
+        ByteBuffer record = sortedRecords.duplicate();
+        record.position(index * RECORD_SIZE);
+        record.get(key).get(value);
+        records.put(HashCode.fromBytes(key), value);
+      }
+    }
+    records.putAll(appended);
+    records.putAll(pending);
+
+    List<HashCode> keys = new ArrayList<>(records.keySet());
+    keys.sort((key1, key2) -> KEY_COMPARATOR.compare(key1.asBytes(), key2.asBytes()));
+
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keys.size() * RECORD_SIZE);
+    buffer.put(MAGIC).putInt(VERSION).putInt(keys.size());
+    keys.forEach(key -> buffer.put(key.asBytes()).put(records.get(key)));
+    buffer.flip();
+
+    Path target = file.toPath().toAbsolutePath();
+    Path temp = FileUtil.createTempSibling(target, ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      recordsEnd = buffer.limit();
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  @Nullable
+  private byte[] getSorted(byte[] key) {
+    ByteBuffer sortedRecords = sorted;
+    if (sortedRecords == null) {
+      return null;
+    }
+
+    ByteBuffer records = sortedRecords.duplicate();
+    byte[] current = new byte[KEY_SIZE];
+    @Var int low = 0;
+    @Var int high = sortedCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      records.position(mid * RECORD_SIZE);
+      records.get(current);
+
+      int comparison = KEY_COMPARATOR.compare(current, key);
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        byte[] value = new byte[VALUE_SIZE];
+        records.get(value);
+        return value;
+      }
+    }
+    return null;
+  }
+
+  private static HashCode keyHash(String key) {
+    return HashCode.fromBytes(
+        Arrays.copyOf(Hashing.sha256().hashString(key, UTF_8).asBytes(), KEY_SIZE));
+  }
+}
@@ -0,0 +1,48 @@
+package com.uber.okbuck.core.dependency;
+
+import com.google.common.collect.Sets;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * An immutable set of versionless dependencies, stored as a bitset of the ids assigned by the
+ * {@link DependencyFactory}. Set operations work on whole words of ids instead of hashing every
+ * dependency.
+ */
+public final class VersionlessSet {
+
+  public static final VersionlessSet EMPTY = new VersionlessSet(new BitSet());
+
+  private final BitSet ids;
+
+  VersionlessSet(BitSet ids) {
+    this.ids = ids;
+  }
+
+  /** Returns the set of the versionless dependencies of the given dependencies. */
+  public static VersionlessSet of(Collection<OExternalDependency> dependencies) {
+    BitSet ids = new BitSet();
+    dependencies.forEach(dependency -> ids.set(dependency.getVersionlessId()));
+    return new VersionlessSet(ids);
+  }
+
+  public boolean contains(OExternalDependency dependency) {
+    return ids.get(dependency.getVersionlessId());
+  }
+
+  /** Returns the versionless dependencies in this set but not in the other set. */
+  public VersionlessSet andNot(VersionlessSet other) {
+    BitSet result = (BitSet) ids.clone();
+    result.andNot(other.ids);
+    return new VersionlessSet(result);
+  }
+
+  /**
+   * Returns a view of the given dependencies whose versionless dependency is in this set. The view
+   * is not copied, so its {@code size()} and every iteration walk all of the given dependencies.
+   */
+  public Set<OExternalDependency> filter(Set<OExternalDependency> dependencies) {
+    return Sets.filter(dependencies, this::contains);
+  }
+}
@@ -0,0 +1,17 @@
+package com.uber.okbuck.core.dependency.checksum;
+
+import java.io.File;
+import javax.annotation.Nullable;
+
+/** Provides already known sha256sums of artifacts without reading them. */
+public interface ChecksumProvider {
+
+  /**
+   * Returns the sha256sum of the given artifact if known.
+   *
+   * @param file The artifact file
+   * @return The hex encoded sha256sum, or null if unknown to this provider
+   */
+  @Nullable
+  String sha256(File file);
+}
@@ -0,0 +1,69 @@
+package com.uber.okbuck.core.dependency.checksum;
+
+import com.google.common.collect.ImmutableList;
+import com.uber.okbuck.extension.ExternalDependenciesExtension;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.gradle.api.Project;
+
+public final class ChecksumProviders {
+
+  private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+  private static final String GRADLE_FILES_CACHE = "files-2.1";
+
+  private ChecksumProviders() {}
+
+  /**
+   * Returns the providers to consult before computing a sha256sum, in order: gradle's verification
+   * metadata, sidecar files and the shared checksum manifest if configured.
+   */
+  public static ImmutableList<ChecksumProvider> getChecksumProviders(
+      Project rootProject, ExternalDependenciesExtension externalDependenciesExtension) {
+    ImmutableList.Builder<ChecksumProvider> providers = ImmutableList.builder();
+
+    File metadata = rootProject.file(VerificationMetadataChecksumProvider.VERIFICATION_METADATA);
+    if (metadata.isFile()) {
+      providers.add(new VerificationMetadataChecksumProvider(metadata));
+    }
+
+    providers.add(new SidecarChecksumProvider());
+
+    String manifest = externalDependenciesExtension.getSha256Manifest();
+    if (manifest != null) {
+      providers.add(new ManifestChecksumProvider(rootProject.file(manifest)));
+    }
+
+    return providers.build();
+  }
+
+  /**
+   * Returns the coordinates of an artifact in gradle's files cache in the form {@code
+   * group:name:version:fileName}. The cache stores artifacts as {@code
+   * files-2.1/group/name/version/sha1/fileName}.
+   */
+  @Nullable
+  static String artifactCoordinates(File file) {
+    Path path = file.toPath().toAbsolutePath();
+    int count = path.getNameCount();
+    if (count < 6 || !path.getName(count - 6).toString().equals(GRADLE_FILES_CACHE)) {
+      return null;
+    }
+
+    return path.getName(count - 5)
+        + ":"
+        + path.getName(count - 4)
+        + ":"
+        + path.getName(count - 3)
+        + ":"
+        + file.getName();
+  }
+
+  @Nullable
+  static String validSha256(String value) {
+    String sha256 = value.toLowerCase(Locale.US);
+    return SHA256.matcher(sha256).matches() ? sha256 : null;
+  }
+}
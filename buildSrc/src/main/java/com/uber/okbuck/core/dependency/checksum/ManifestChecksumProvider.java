@@ -0,0 +1,52 @@
+package com.uber.okbuck.core.dependency.checksum;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Reads sha256sums from a checksum manifest shared across a team. Each line of the manifest has a
+ * sha256sum followed by the artifact it belongs to, e.g. {@code <sha256>
+ * com.google.guava:guava:30.1-jre:guava-30.1-jre.jar}. Empty lines and lines starting with {@code
+ * #} are ignored.
+ */
+public class ManifestChecksumProvider implements ChecksumProvider {
+
+  private final Map<String, String> checksums = new HashMap<>();
+
+  public ManifestChecksumProvider(File manifest) {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't read checksum manifest " + manifest, e);
+    }
+
+    for (String line : lines) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+
+      String[] parts = trimmed.split("\\s+");
+      String sha256 = parts.length == 2 ? ChecksumProviders.validSha256(parts[0]) : null;
+      if (sha256 == null) {
+        throw new IllegalStateException(
+            "Invalid line in checksum manifest " + manifest + ": " + line);
+      }
+      checksums.put(parts[1], sha256);
+    }
+  }
+
+  @Nullable
+  @Override
+  public String sha256(File file) {
+    String coordinates = ChecksumProviders.artifactCoordinates(file);
+    return coordinates != null ? checksums.get(coordinates) : null;
+  }
+}
@@ -0,0 +1,33 @@
+package com.uber.okbuck.core.dependency.checksum;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.annotation.Nullable;
+
+/**
+ * Reads sha256sums from {@code .sha256} files published next to artifacts, as found in local maven
+ * repositories.
+ */
+public class SidecarChecksumProvider implements ChecksumProvider {
+
+  private static final String SIDECAR_EXTENSION = ".sha256";
+
+  @Nullable
+  @Override
+  public String sha256(File file) {
+    File sidecar = new File(file.getParentFile(), file.getName() + SIDECAR_EXTENSION);
+    if (!sidecar.isFile()) {
+      return null;
+    }
+
+    try {
+      // Sidecar files either contain just the checksum or are in the sha256sum output format
+      String content = new String(Files.readAllBytes(sidecar.toPath()), StandardCharsets.UTF_8);
+      return ChecksumProviders.validSha256(content.trim().split("\\s+")[0]);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+}
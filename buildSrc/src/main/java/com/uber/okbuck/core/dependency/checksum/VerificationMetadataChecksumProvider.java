@@ -0,0 +1,51 @@
+package com.uber.okbuck.core.dependency.checksum;
+
+import com.uber.okbuck.core.util.XmlUtil;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/** Reads sha256sums from gradle's dependency verification metadata. */
+public class VerificationMetadataChecksumProvider implements ChecksumProvider {
+
+  public static final String VERIFICATION_METADATA = "gradle/verification-metadata.xml";
+
+  private final Map<String, String> checksums = new HashMap<>();
+
+  public VerificationMetadataChecksumProvider(File metadata) {
+    NodeList components = XmlUtil.loadXml(metadata).getElementsByTagName("component");
+    for (int i = 0; i < components.getLength(); i++) {
+      Element component = (Element) components.item(i);
+      String prefix =
+          component.getAttribute("group")
+              + ":"
+              + component.getAttribute("name")
+              + ":"
+              + component.getAttribute("version")
+              + ":";
+
+      NodeList artifacts = component.getElementsByTagName("artifact");
+      for (int j = 0; j < artifacts.getLength(); j++) {
+        Element artifact = (Element) artifacts.item(j);
+        NodeList sha256s = artifact.getElementsByTagName("sha256");
+        if (sha256s.getLength() > 0) {
+          String sha256 =
+              ChecksumProviders.validSha256(((Element) sha256s.item(0)).getAttribute("value"));
+          if (sha256 != null) {
+            checksums.put(prefix + artifact.getAttribute("name"), sha256);
+          }
+        }
+      }
+    }
+  }
+
+  @Nullable
+  @Override
+  public String sha256(File file) {
+    String coordinates = ChecksumProviders.artifactCoordinates(file);
+    return coordinates != null ? checksums.get(coordinates) : null;
+  }
+}
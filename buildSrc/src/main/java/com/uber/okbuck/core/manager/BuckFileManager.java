@@ -1,27 +1,42 @@
 package com.uber.okbuck.core.manager;
 
-import com.google.common.base.Charsets;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.TreeMultimap;
-import com.google.common.io.CharSink;
-import com.google.common.io.FileWriteMode;
-import com.google.common.io.Files;
+import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.uber.okbuck.OkBuckGradlePlugin;
 import com.uber.okbuck.core.model.base.RuleType;
+import com.uber.okbuck.core.util.FileUtil;
+import com.uber.okbuck.core.util.GeneratedFiles;
+import com.uber.okbuck.core.util.OkBuckProfiler;
 import com.uber.okbuck.extension.RuleOverridesExtension;
 import com.uber.okbuck.template.common.GeneratedHeader;
 import com.uber.okbuck.template.common.LoadStatements;
 import com.uber.okbuck.template.core.Rule;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 public class BuckFileManager {
 
@@ -29,24 +44,50 @@ public class BuckFileManager {
   private static final String RES_GLOB = "res_glob";
   private static final String SUBDIR_GLOB = "subdir_glob";
 
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  // Buffers which grew larger than this are dropped after use instead of being kept around
+  private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  // Idle render threads die after this, so a failed run doesn't leave them behind on the daemon
+  private static final long RENDER_THREAD_KEEP_ALIVE_SECONDS = 10;
+
   private final RuleOverridesExtension ruleOverridesExtension;
+  private final OkBuckProfiler profiler;
+  private final GeneratedFiles generatedFiles;
+  private final Map<Path, CompletableFuture<byte[]>> stagedBuckFiles = new ConcurrentHashMap<>();
+  private final ThreadLocal<RenderBuffer> renderBuffers =
+      ThreadLocal.withInitial(RenderBuffer::new);
+  @Nullable private final ExecutorService renderPool;
 
-  public BuckFileManager(RuleOverridesExtension ruleOverridesExtension) {
+  /**
+   * Creates a buck file manager.
+   *
+   * @param renderThreads The number of threads staged buck files are rendered and written on. With
+   *     a single thread they are rendered right away on the staging thread.
+   */
+  public BuckFileManager(
+      RuleOverridesExtension ruleOverridesExtension,
+      OkBuckProfiler profiler,
+      GeneratedFiles generatedFiles,
+      int renderThreads) {
     this.ruleOverridesExtension = ruleOverridesExtension;
+    this.profiler = profiler;
+    this.generatedFiles = generatedFiles;
+    this.renderPool = renderThreads > 1 ? newRenderPool(renderThreads) : null;
   }
 
   public void writeToBuckFile(String content, File buckFile, boolean append) {
-    CharSink sink;
-    if (append) {
-      sink = Files.asCharSink(buckFile, Charsets.UTF_8, FileWriteMode.APPEND);
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    if (append && buckFile.isFile()) {
+      try {
+        byte[] appended = Bytes.concat(Files.readAllBytes(buckFile.toPath()), bytes);
+        writeIfChanged(buckFile, ByteBuffer.wrap(appended));
+      } catch (IOException e) {
+        throw new IllegalStateException("Couldn't create the buck file", e);
+      }
     } else {
-      sink = Files.asCharSink(buckFile, Charsets.UTF_8);
-    }
-
-    try {
-      sink.write(content);
-    } catch (IOException e) {
-      throw new IllegalStateException("Couldn't create the buck file", e);
+      writeIfChanged(buckFile, ByteBuffer.wrap(bytes));
     }
   }
 
@@ -57,31 +98,202 @@ public class BuckFileManager {
   public void writeToBuckFile(
       List<Rule> rules, File buckFile, Multimap<String, String> extraLoadStatements) {
     if (!rules.isEmpty()) {
-      Multimap<String, String> loadStatements = getLoadStatements(rules);
-      loadStatements.putAll(extraLoadStatements);
-      File parent = buckFile.getParentFile();
-      if (!parent.exists() && !parent.mkdirs()) {
-        throw new IllegalStateException("Couldn't create dir: " + parent);
+      RenderBuffer buffer = render(rules, extraLoadStatements);
+      try {
+        writeIfChanged(buckFile, buffer.contents());
+      } finally {
+        release(buffer);
       }
+    }
+  }
 
-      try (OutputStream fos = new FileOutputStream(buckFile);
-          BufferedOutputStream os = new BufferedOutputStream(fos)) {
+  /**
+   * Renders the rules of a buck file followed by a trailer, and writes them at once if they differ
+   * from the existing contents.
+   */
+  public void writeToBuckFile(List<Rule> rules, File buckFile, String trailer) {
+    if (!rules.isEmpty()) {
+      RenderBuffer buffer = render(rules, TreeMultimap.create());
+      try {
+        byte[] bytes = trailer.getBytes(StandardCharsets.UTF_8);
+        buffer.write(bytes, 0, bytes.length);
+        writeIfChanged(buckFile, buffer.contents());
+      } finally {
+        release(buffer);
+      }
+    }
+  }
+
+  /**
+   * Renders the rules of a buck file and keeps them in memory instead of writing them right away.
+   * Used for project buck files which get exported file rules appended once all projects are
+   * generated. Staged files are written with {@link #writeStagedBuckFiles()}.
+   *
+   * <p>With more than one render thread, the rules are rendered on the render pool. Rendering only
+   * reads the rules, so it doesn't need any of gradle's locks. The rules must not be modified once
+   * staged.
+   */
+  public void stageBuckFile(
+      List<Rule> rules, File buckFile, Multimap<String, String> extraLoadStatements) {
+    if (!rules.isEmpty()) {
+      Supplier<byte[]> renderer =
+          () -> {
+            RenderBuffer buffer = render(rules, extraLoadStatements);
+            try {
+              return buffer.toByteArray();
+            } finally {
+              release(buffer);
+            }
+          };
+      stagedBuckFiles.put(
+          stagingKey(buckFile),
+          renderPool != null
+              ? CompletableFuture.supplyAsync(renderer, renderPool)
+              : CompletableFuture.completedFuture(renderer.get()));
+    }
+  }
+
+  public void stageBuckFile(File buckFile, byte[] content) {
+    stagedBuckFiles.put(stagingKey(buckFile), CompletableFuture.completedFuture(content));
+  }
 
-        GeneratedHeader.template().render(os);
-        if (!loadStatements.isEmpty()) {
-          LoadStatements.template(writableLoadStatements(loadStatements)).render(os);
+  /**
+   * Returns the staged contents of the buck file once rendered, or an empty array if nothing was
+   * staged.
+   */
+  public CompletableFuture<byte[]> getStagedBuckFile(File buckFile) {
+    return stagedBuckFiles.getOrDefault(
+        stagingKey(buckFile), CompletableFuture.completedFuture(new byte[0]));
+  }
+
+  /**
+   * Writes all staged buck files which differ from their existing contents, on the render pool if
+   * there is one. The render pool is shut down afterwards.
+   */
+  public void writeStagedBuckFiles() {
+    try {
+      CompletableFuture.allOf(
+              stagedBuckFiles
+                  .entrySet()
+                  .stream()
+                  .map(
+                      entry -> {
+                        Consumer<byte[]> writer =
+                            content ->
+                                writeIfChanged(entry.getKey().toFile(), ByteBuffer.wrap(content));
+                        return renderPool != null
+                            ? entry.getValue().thenAcceptAsync(writer, renderPool)
+                            : entry.getValue().thenAccept(writer);
+                      })
+                  .toArray(CompletableFuture[]::new))
+          .join();
+    } finally {
+      stagedBuckFiles.clear();
+      if (renderPool != null) {
+        renderPool.shutdown();
+      }
+    }
+  }
+
+  private static ExecutorService newRenderPool(int threads) {
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            RENDER_THREAD_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("okbuck-render-%d").setDaemon(true).build());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  private static Path stagingKey(File buckFile) {
+    return buckFile.toPath().toAbsolutePath().normalize();
+  }
+
+  /**
+   * Renders the header, load statements and rules of a buck file into the buffer of the current
+   * thread. The buffer has to be released with {@link #release(RenderBuffer)} once its contents
+   * are consumed.
+   */
+  private RenderBuffer render(List<Rule> rules, Multimap<String, String> extraLoadStatements) {
+    Multimap<String, String> loadStatements = getLoadStatements(rules);
+    loadStatements.putAll(extraLoadStatements);
+
+    RenderBuffer os = renderBuffers.get();
+    os.reset();
+    try (OkBuckProfiler.Phase ignored = profiler.start("renderBuckFile")) {
+      GeneratedHeader.template().render(os);
+      if (!loadStatements.isEmpty()) {
+        LoadStatements.template(writableLoadStatements(loadStatements)).render(os);
+      }
+
+      for (int index = 0; index < rules.size(); index++) {
+        // Don't add a new line before the first rule
+        if (index != 0) {
+          os.write(NEWLINE, 0, NEWLINE.length);
         }
+        rules.get(index).render(os);
+      }
+      return os;
+    } catch (RuntimeException e) {
+      release(os);
+      throw e;
+    }
+  }
+
+  private void release(RenderBuffer buffer) {
+    if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+      renderBuffers.remove();
+    } else {
+      buffer.reset();
+    }
+  }
+
+  /**
+   * Writes the content to the buck file only if it differs from what is already there. This keeps
+   * the modification time of unchanged files intact, which lets buck reuse its parser cache. The
+   * file is written to a temporary file with a single channel write first and moved in place
+   * atomically. Written and unchanged files are both recorded as generated in this run.
+   */
+  private void writeIfChanged(File buckFile, ByteBuffer content) {
+    generatedFiles.record(buckFile.toPath());
+    try {
+      if (buckFile.isFile()
+          && buckFile.length() == content.remaining()
+          && ByteBuffer.wrap(Files.readAllBytes(buckFile.toPath())).equals(content)) {
+        profiler.count(OkBuckProfiler.BUCK_FILES_UNCHANGED, 1);
+        return;
+      }
+
+      File parent = buckFile.getParentFile();
+      if (!parent.exists() && !parent.mkdirs()) {
+        throw new IllegalStateException("Couldn't create dir: " + parent);
+      }
 
-        for (int index = 0; index < rules.size(); index++) {
-          // Don't add a new line before the first rule
-          if (index != 0) {
-            os.write(NEWLINE);
+      Path tempFile = FileUtil.createTempSibling(buckFile.toPath(), TEMP_SUFFIX);
+      try {
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+          while (content.hasRemaining()) {
+            channel.write(content);
           }
-          rules.get(index).render(os);
         }
-      } catch (IOException e) {
-        throw new IllegalStateException("Couldn't create the buck file", e);
+        try {
+          Files.move(
+              tempFile,
+              buckFile.toPath(),
+              StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(tempFile, buckFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(tempFile);
       }
+      profiler.count(OkBuckProfiler.BUCK_FILES_WRITTEN, 1);
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't create the buck file", e);
     }
   }
 
@@ -117,4 +329,20 @@ public class BuckFileManager {
                     .collect(Collectors.joining(", ", "load(", ")")))
         .collect(Collectors.toList());
   }
+
+  /** A byte array output stream whose contents can be read without copying them. */
+  private static final class RenderBuffer extends ByteArrayOutputStream {
+
+    private RenderBuffer() {
+      super(64 * 1024);
+    }
+
+    private ByteBuffer contents() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    private int capacity() {
+      return buf.length;
+    }
+  }
 }
@@ -63,6 +63,7 @@ public final class BuckManager {
       linkedBinaryPath.getParent().toFile().mkdirs();
 
       FileUtil.symlink(linkedBinaryPath, realBuckBinaryPath);
+      ProjectUtil.getGeneratedFiles(rootProject).record(linkedBinaryPath);
     }
   }
 
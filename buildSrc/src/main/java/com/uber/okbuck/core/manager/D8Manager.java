@@ -25,6 +25,7 @@ public final class D8Manager {
 
   public void copyDeps(BuckFileManager buckFileManager, OkBuckExtension okBuckExtension) {
     FileUtil.copyResourceToProject(
+        rootProject,
         "d8/" + RT_STUB_JAR, rootProject.file(D8_CACHE + File.separator + RT_STUB_JAR));
 
     List<Rule> d8 =
@@ -8,22 +8,27 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.SetMultimap;
+import com.uber.okbuck.OkBuckGradlePlugin;
 import com.uber.okbuck.composer.common.BazelHttpFileRuleComposer;
 import com.uber.okbuck.composer.common.HttpFileRuleComposer;
 import com.uber.okbuck.composer.java.JavaAnnotationProcessorRuleComposer;
 import com.uber.okbuck.composer.java.LocalPrebuiltRuleComposer;
 import com.uber.okbuck.composer.java.PrebuiltRuleComposer;
 import com.uber.okbuck.core.annotation.AnnotationProcessorCache;
+import com.uber.okbuck.core.dependency.ChecksumService;
 import com.uber.okbuck.core.dependency.DependencyFactory;
 import com.uber.okbuck.core.dependency.DependencyUtils;
 import com.uber.okbuck.core.dependency.LocalOExternalDependency;
 import com.uber.okbuck.core.dependency.OExternalDependency;
+import com.uber.okbuck.core.dependency.ResolutionScheduler;
+import com.uber.okbuck.core.dependency.Sha256Cache;
 import com.uber.okbuck.core.dependency.VersionlessDependency;
+import com.uber.okbuck.core.dependency.checksum.ChecksumProviders;
 import com.uber.okbuck.core.model.base.Scope;
 import com.uber.okbuck.core.util.FileUtil;
-import com.uber.okbuck.core.util.ProjectCache;
+import com.uber.okbuck.core.util.GeneratedFiles;
+import com.uber.okbuck.core.util.OkBuckProfiler;
 import com.uber.okbuck.core.util.ProjectUtil;
 import com.uber.okbuck.extension.ExternalDependenciesExtension;
 import com.uber.okbuck.extension.JetifierExtension;
@@ -32,18 +37,21 @@ import com.uber.okbuck.template.common.BazelFunctionRule;
 import com.uber.okbuck.template.core.Rule;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import org.apache.commons.io.FileUtils;
+import java.util.stream.Stream;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
@@ -65,7 +73,7 @@ public class DependencyManager {
 
   private final HashMap<VersionlessDependency, Boolean> skipPrebuiltDependencyMap = new HashMap<>();
 
-  private final HashMap<String, String> sha256Cache;
+  private final Sha256Cache sha256Cache;
 
   public DependencyManager(
       Project rootProject, OkBuckExtension okBuckExtension, BuckFileManager buckFileManager) {
@@ -74,7 +82,8 @@ public class DependencyManager {
     this.externalDependenciesExtension = okBuckExtension.getExternalDependenciesExtension();
     this.jetifierExtension = okBuckExtension.getJetifierExtension();
     this.buckFileManager = buckFileManager;
-    this.sha256Cache = initSha256Cache(rootProject, externalDependenciesExtension);
+    this.sha256Cache =
+        Sha256Cache.open(rootProject.file(externalDependenciesExtension.getSha256Cache()));
   }
 
   public synchronized void addRawDependencies(Set<ExternalDependency> dependencies) {
@@ -98,50 +107,18 @@ public class DependencyManager {
       return;
     }
 
-    Map<String, List<ExternalDependency>> rawDepsMap =
-        rawDependencies
-            .stream()
-            .collect(Collectors.groupingBy(i -> i.getGroup() + "--" + i.getVersion()));
-
-    List<Project> allProjects = new ArrayList<>(project.getAllprojects());
-    int numberOfChunks = allProjects.size();
-
-    List<Map<String, List<ExternalDependency>>> chunksRawDepsMap =
-        rawDepsMap
-            .keySet()
-            .stream()
-            .collect(Collectors.groupingBy(key -> Math.abs(key.hashCode()) % numberOfChunks))
-            .values()
-            .stream()
-            .map(chunk -> chunk.stream().collect(Collectors.toMap(key -> key, rawDepsMap::get)))
-            .collect(Collectors.toList());
-
-    IntStream.range(0, allProjects.size())
-        .parallel()
-        .forEach(
-            i -> {
-              resolveDepsWithProject(allProjects.get(i), chunksRawDepsMap.get(i));
-            });
-  }
-
-  private static void resolveDepsWithProject(
-      Project project, Map<String, List<ExternalDependency>> depsMap) {
-    if (project != project.getRootProject()) {
-      ProjectCache.initScopeCache(project);
-    }
-
-    for (Map.Entry<String, List<ExternalDependency>> e : depsMap.entrySet()) {
-      Configuration config =
-          project
-              .getConfigurations()
-              .maybeCreate("resolve__" + e.getKey().replace(".", "__").replace(":", "__"));
-      config.getDependencies().addAll(e.getValue());
-      Scope.builder(project).configuration(config).build();
+    Map<String, List<ExternalDependency>> rawDepsMap;
+    synchronized (this) {
+      rawDepsMap =
+          rawDependencies
+              .stream()
+              .collect(Collectors.groupingBy(i -> i.getGroup() + "--" + i.getVersion()));
     }
 
-    if (project != project.getRootProject()) {
-      ProjectCache.resetScopeCache(project);
-    }
+    new ResolutionScheduler(
+            project.file(OkBuckGradlePlugin.RESOLUTION_COSTS),
+            externalDependenciesExtension.getResolutionThreads())
+        .resolve(rawDepsMap, new ArrayList<>(project.getAllprojects()));
   }
 
   public void finalizeDependencies(OkBuckExtension okBuckExtension) {
@@ -152,7 +129,7 @@ public class DependencyManager {
     updateDependencies(filteredDependencyMap);
     processDependencies(filteredDependencyMap, okBuckExtension);
 
-    persistSha256Cache(project, sha256Cache, externalDependenciesExtension);
+    sha256Cache.persist();
   }
 
   private Map<VersionlessDependency, Collection<OExternalDependency>> filterDependencies() {
@@ -382,18 +359,15 @@ public class DependencyManager {
       OkBuckExtension okBuckExtension) {
     Path rootPath = project.getRootDir().toPath();
     File cacheDir = rootPath.resolve(externalDependenciesExtension.getCache()).toFile();
-    if (cacheDir.exists()) {
-      try {
-        FileUtils.deleteDirectory(cacheDir);
-      } catch (IOException e) {
-        throw new IllegalStateException("Could not delete dependency directory: " + cacheDir, e);
-      }
-    }
-
-    if (!cacheDir.mkdirs()) {
+    if (!cacheDir.exists() && !cacheDir.mkdirs()) {
       throw new IllegalStateException("Couldn't create dependency directory: " + cacheDir);
     }
 
+    // The cache dir is updated in place. Everything generated in this run is tracked so that
+    // whatever else remains from previous runs can be removed at the end.
+    Set<Path> generatedFiles = new HashSet<>();
+    Map<Path, Path> symlinks = new HashMap<>();
+
     Map<Path, List<OExternalDependency>> groupToDependencyMap =
         dependencyMap
             .values()
@@ -409,6 +383,16 @@ public class DependencyManager {
 
     ImmutableList.Builder<OExternalDependency> bazelDependencies = ImmutableList.builder();
 
+    if (externalDependenciesExtension.shouldDownloadInBuck()) {
+      preComputeSha256(
+          groupToDependencyMap
+              .values()
+              .stream()
+              .flatMap(Collection::stream)
+              .filter(dependency -> !(dependency instanceof LocalOExternalDependency))
+              .collect(Collectors.toList()));
+    }
+
     groupToDependencyMap.forEach(
         (basePath, dependencies) -> {
           ImmutableList.Builder<OExternalDependency> localPrebuiltDependencies =
@@ -433,9 +417,6 @@ public class DependencyManager {
             localPrebuiltDependencies.addAll(dependencies);
           }
 
-          preComputeSha256(prebuiltDependencies.build(), sha256Cache);
-          preComputeSha256(httpFileDependencies.build(), sha256Cache);
-
           ImmutableList.Builder<Rule> rulesBuilder = ImmutableList.builder();
           rulesBuilder.addAll(LocalPrebuiltRuleComposer.compose(localPrebuiltDependencies.build()));
           rulesBuilder.addAll(
@@ -449,10 +430,14 @@ public class DependencyManager {
             rulesBuilder.addAll(JavaAnnotationProcessorRuleComposer.compose(scopeList));
           }
 
-          buckFileManager.writeToBuckFile(
-              rulesBuilder.build(), basePath.resolve(okBuckExtension.buildFileName).toFile());
+          ImmutableList<Rule> rules = rulesBuilder.build();
+          Path buckFile = basePath.resolve(okBuckExtension.buildFileName);
+          buckFileManager.writeToBuckFile(rules, buckFile.toFile());
+          if (!rules.isEmpty()) {
+            generatedFiles.add(buckFile.normalize());
+          }
 
-          createSymlinks(basePath, localPrebuiltDependencies.build());
+          symlinks.putAll(getSymlinks(basePath, localPrebuiltDependencies.build()));
         });
 
     if (okBuckExtension.getExternalDependenciesExtension().bazelDepsEnabled()) {
@@ -461,11 +446,24 @@ public class DependencyManager {
       bazelRulesBuilder.addAll(
           BazelHttpFileRuleComposer.compose(bazelDependencies.build(), sha256Cache));
 
-      buckFileManager.writeToBuckFile(
-          "", cacheDir.toPath().resolve(okBuckExtension.buildFileName).toFile(), false);
-      File defsBzl = cacheDir.toPath().resolve("defs.bzl").toFile();
-      buckFileManager.writeToBuckFile(bazelRulesBuilder.build(), defsBzl);
-      buckFileManager.writeToBuckFile("\n", defsBzl, true);
+      Path buckFile = cacheDir.toPath().resolve(okBuckExtension.buildFileName);
+      buckFileManager.writeToBuckFile("", buckFile.toFile(), false);
+      Path defsBzl = cacheDir.toPath().resolve("defs.bzl");
+      buckFileManager.writeToBuckFile(bazelRulesBuilder.build(), defsBzl.toFile(), "\n");
+
+      generatedFiles.add(buckFile.normalize());
+      generatedFiles.add(defsBzl.normalize());
+    }
+
+    ProjectUtil.getProfiler(project).time("createSymlinks", () -> createSymlinks(symlinks));
+    generatedFiles.addAll(symlinks.keySet());
+
+    // Stale files are removed from the manifest of the last run once all files are generated. The
+    // cache dir only has to be walked if there is no manifest yet.
+    GeneratedFiles manifest = ProjectUtil.getGeneratedFiles(project);
+    symlinks.keySet().forEach(manifest::record);
+    if (!manifest.hasLastManifest()) {
+      removeStaleFiles(cacheDir.toPath(), generatedFiles);
     }
   }
 
@@ -474,67 +472,104 @@ public class DependencyManager {
         && (dependency.getPackaging().equals(AAR) || dependency.getPackaging().equals(JAR));
   }
 
-  private static void createSymlinks(Path path, Collection<OExternalDependency> dependencies) {
-    if (!path.toFile().exists() && !path.toFile().mkdirs()) {
-      throw new IllegalStateException(
-          String.format("Couldn't create %s when creating symlinks", path));
-    }
-
-    SetMultimap<VersionlessDependency, OExternalDependency> nameToDependencyMap =
-        MultimapBuilder.hashKeys().hashSetValues().build();
-    dependencies.forEach(
-        dependency -> nameToDependencyMap.put(dependency.getVersionless(), dependency));
-
+  /** Returns the symlinks to the dependency and source files of the given dependencies. */
+  private static Map<Path, Path> getSymlinks(
+      Path path, Collection<OExternalDependency> dependencies) {
+    Map<Path, Path> symlinks = new HashMap<>();
     dependencies.forEach(
         dependency -> {
-          FileUtil.symlink(
-              path.resolve(dependency.getDependencyFileName()),
+          symlinks.put(
+              path.resolve(dependency.getDependencyFileName()).normalize(),
               dependency.getRealDependencyFile().toPath());
 
           dependency
               .getRealSourceFile()
               .ifPresent(
                   file ->
-                      FileUtil.symlink(
-                          path.resolve(dependency.getSourceFileName()), file.toPath()));
+                      symlinks.put(
+                          path.resolve(dependency.getSourceFileName()).normalize(),
+                          file.toPath()));
         });
+    return symlinks;
   }
 
-  private static void preComputeSha256(
-      List<OExternalDependency> dependencies, HashMap<String, String> sha256Map) {
-    dependencies.forEach(
-        dependency -> {
-          computeSha256IfAbsent(dependency.getRealDependencyFile(), sha256Map);
+  /** Creates the given symlinks, leaving the ones which already point to the right target. */
+  private void createSymlinks(Map<Path, Path> symlinks) {
+    OkBuckProfiler profiler = ProjectUtil.getProfiler(project);
+    symlinks.forEach(
+        (link, target) -> {
+          try {
+            if (Files.isSymbolicLink(link)) {
+              if (Files.readSymbolicLink(link).equals(target)) {
+                return;
+              }
+              Files.delete(link);
+            } else if (Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+              FileUtil.deleteQuietly(link);
+            }
+          } catch (IOException e) {
+            throw new IllegalStateException("Couldn't update symlink " + link, e);
+          }
 
-          Optional<File> sourcesFile = dependency.getRealSourceFile();
-          sourcesFile.ifPresent(file -> computeSha256IfAbsent(file, sha256Map));
+          File parent = link.getParent().toFile();
+          if (!parent.exists() && !parent.mkdirs()) {
+            throw new IllegalStateException(
+                String.format("Couldn't create %s when creating symlinks", parent));
+          }
+          FileUtil.symlink(link, target);
+          profiler.count(OkBuckProfiler.SYMLINKS_CREATED, 1);
         });
   }
 
-  private static void computeSha256IfAbsent(File file, HashMap<String, String> sha256Map) {
-    String key = OExternalDependency.getGradleSha(file);
-    sha256Map.computeIfAbsent(key, k -> DependencyUtils.shaSum256(file));
-  }
-
-  private static HashMap<String, String> initSha256Cache(
-      Project rootProject, ExternalDependenciesExtension externalDependenciesExtension) {
-    File projectMappingFile = rootProject.file(externalDependenciesExtension.getSha256Cache());
+  /**
+   * Deletes files and symlinks under the cache dir which were not generated in this run, along with
+   * any directories left empty.
+   */
+  private static void removeStaleFiles(Path cacheDir, Set<Path> generatedFiles) {
     try {
-      return FileUtil.readMapFromJsonFile(projectMappingFile);
+      Files.walkFileTree(
+          cacheDir,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+              if (!generatedFiles.contains(file.normalize())) {
+                Files.delete(file);
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                throws IOException {
+              if (!dir.equals(cacheDir)) {
+                try (Stream<Path> children = Files.list(dir)) {
+                  if (!children.findAny().isPresent()) {
+                    Files.delete(dir);
+                  }
+                }
+              }
+              return FileVisitResult.CONTINUE;
+            }
+          });
     } catch (IOException e) {
-      return new HashMap<>();
+      throw new IllegalStateException("Couldn't clean dependency directory: " + cacheDir, e);
     }
   }
 
-  private static void persistSha256Cache(
-      Project rootProject,
-      HashMap<String, String> sha256Map,
-      ExternalDependenciesExtension externalDependenciesExtension) {
-    File projectMappingFile = rootProject.file(externalDependenciesExtension.getSha256Cache());
-    try {
-      FileUtil.persistMapToJsonFile(sha256Map, projectMappingFile);
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
-    }
+  /** Computes the sha256sum of the dependency and source files which are not cached yet. */
+  private void preComputeSha256(List<OExternalDependency> dependencies) {
+    List<File> files = new ArrayList<>();
+    dependencies.forEach(
+        dependency -> {
+          files.add(dependency.getRealDependencyFile());
+          dependency.getRealSourceFile().ifPresent(files::add);
+        });
+
+    new ChecksumService(
+            ChecksumProviders.getChecksumProviders(project, externalDependenciesExtension),
+            externalDependenciesExtension.getSha256Threads(),
+            ProjectUtil.getProfiler(project))
+        .computeIfAbsent(files, sha256Cache);
   }
 }
@@ -6,6 +6,7 @@ import com.uber.okbuck.composer.base.BuckRuleComposer;
 import com.uber.okbuck.core.dependency.DependencyCache;
 import com.uber.okbuck.core.dependency.OExternalDependency;
 import com.uber.okbuck.core.util.FileUtil;
+import com.uber.okbuck.core.util.GeneratedFiles;
 import com.uber.okbuck.core.util.ProjectUtil;
 import com.uber.okbuck.extension.OkBuckExtension;
 import com.uber.okbuck.template.config.groovy.GroovyBuckFile;
@@ -59,7 +60,8 @@ public final class GroovyManager {
       groovyHome.mkdirs();
 
       File groovyStarterConf = new File(groovyHome, "groovy-starter.conf");
-      FileUtil.copyResourceToProject("groovy/conf/groovy-starter.conf", groovyStarterConf);
+      FileUtil.copyResourceToProject(
+          rootProject, "groovy/conf/groovy-starter.conf", groovyStarterConf);
 
       File groovyc = new File(groovyHome, "groovyc");
       new Groovyc().groovyVersion(groovyVersion).render(groovyc);
@@ -69,6 +71,10 @@ public final class GroovyManager {
       new StartGroovy().groovyVersion(groovyVersion).render(startGroovy);
       startGroovy.setExecutable(true);
 
+      GeneratedFiles generatedFiles = ProjectUtil.getGeneratedFiles(rootProject);
+      generatedFiles.record(groovyc.toPath());
+      generatedFiles.record(startGroovy.toPath());
+
       OExternalDependency groovyAll = dependencies.iterator().next();
 
       Rule groovyHomeRule =
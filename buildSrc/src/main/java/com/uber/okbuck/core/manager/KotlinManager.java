@@ -1,15 +1,21 @@
 package com.uber.okbuck.core.manager;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.uber.okbuck.OkBuckGradlePlugin;
 import com.uber.okbuck.core.model.base.RuleType;
 import com.uber.okbuck.core.util.FileUtil;
+import com.uber.okbuck.core.util.ProjectUtil;
 import com.uber.okbuck.extension.KotlinExtension;
 import com.uber.okbuck.extension.OkBuckExtension;
 import com.uber.okbuck.template.common.Genrule;
 import com.uber.okbuck.template.common.HttpArchive;
 import com.uber.okbuck.template.core.Rule;
 import com.uber.okbuck.template.java.NativePrebuilt;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import javax.annotation.Nullable;
 import org.gradle.api.Project;
@@ -24,6 +30,10 @@ public final class KotlinManager {
   public static final String KOTLIN_HOME_TARGET = "//" + KOTLIN_HOME_LOCATION + ":" + KOTLIN_HOME;
   public static final String KOTLIN_KAPT_PLUGIN = "kotlin-kapt";
 
+  // Identifies the kotlin home, the buck wrapper resolves it again only when this changes
+  public static final String KOTLIN_HOME_KEY =
+      OkBuckGradlePlugin.OKBUCK_STATE_DIR + "/KOTLIN_HOME_KEY";
+
   private static final String KOTLIN_AE_NAME = "android-extensions-compiler";
   public static final String KOTLIN_AE_PLUGIN_TARGET =
       "//" + KOTLIN_HOME_LOCATION + ":" + KOTLIN_AE_NAME + ".jar";
@@ -52,10 +62,12 @@ public final class KotlinManager {
 
   public void finalizeDependencies(OkBuckExtension okBuckExtension) {
     Path path = project.file(KOTLIN_HOME_LOCATION).toPath();
+    Path keyPath = project.file(KOTLIN_HOME_KEY).toPath();
     FileUtil.deleteQuietly(path);
 
     if (!kotlinHomeEnabled) {
       // no-op if kotlin home is not enabled
+      FileUtil.deleteQuietly(keyPath);
       return;
     }
 
@@ -63,6 +75,16 @@ public final class KotlinManager {
       throw new IllegalStateException("kotlinVersion is not setup");
     }
 
+    String key =
+        kotlinExtension.version + ":" + Strings.nullToEmpty(kotlinExtension.getCompilerZipSha256());
+    try {
+      Files.createDirectories(keyPath.getParent());
+      Files.write(keyPath, (key + "\n").getBytes(UTF_8));
+      ProjectUtil.getGeneratedFiles(project).record(keyPath);
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't write kotlin home key to " + keyPath, e);
+    }
+
     Rule downloadRule =
         new HttpArchive()
             .sha256(kotlinExtension.getCompilerZipSha256())
@@ -60,7 +60,7 @@ public final class LintManager {
     getLintDepsCache();
   }
 
-  public DependencyCache getLintDepsCache() {
+  public synchronized DependencyCache getLintDepsCache() {
     if (lintDepCache == null) {
       lintDepCache = new DependencyCache(project, ProjectUtil.getDependencyManager(project));
 
@@ -114,10 +114,12 @@ public final class LintManager {
               .name(LINT_DUMMY_JAR));
 
       FileUtil.copyResourceToProject(
-          "lint/" + ANDROID_LINT_CLI_JAR, new File(LINT_DEPS_CACHE, ANDROID_LINT_CLI_JAR));
+          project,
+          "lint/" + ANDROID_LINT_CLI_JAR,
+          new File(LINT_DEPS_CACHE, ANDROID_LINT_CLI_JAR));
 
       FileUtil.copyResourceToProject(
-          "lint/" + LINT_DUMMY_JAR, new File(LINT_DEPS_CACHE, LINT_DUMMY_JAR));
+          project, "lint/" + LINT_DUMMY_JAR, new File(LINT_DEPS_CACHE, LINT_DUMMY_JAR));
 
       buckFileManager.writeToBuckFile(
           rulesBuilder.build(), project.getRootProject().file(lintBuckFile));
@@ -76,6 +76,7 @@ public final class ManifestMergerManager {
 
     if (dependencies != null && dependencies.size() > 0) {
       FileUtil.copyResourceToProject(
+          rootProject,
           "manifest/" + MANIFEST_MERGER_CLI_JAR,
           new File(MANIFEST_MERGER_CACHE, MANIFEST_MERGER_CLI_JAR));
 
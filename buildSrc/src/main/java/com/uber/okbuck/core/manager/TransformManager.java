@@ -85,13 +85,14 @@ public final class TransformManager {
 
       cacheDir.toFile().mkdirs();
 
-      copyFiles(cacheDir);
+      copyFiles(rootProject, cacheDir);
       composeBuckFile(cacheDir, okBuckExtension.buildFileName);
     }
   }
 
-  private static void copyFiles(Path cacheDir) {
+  private static void copyFiles(Project rootProject, Path cacheDir) {
     FileUtil.copyResourceToProject(
+        rootProject,
         TRANSFORM_FOLDER + TRANSFORM_JAR, new File(cacheDir.toFile(), TRANSFORM_JAR));
   }
 
@@ -153,7 +154,7 @@ public final class TransformManager {
   private static String getTransformConfigRuleForFile(Project project, File config) {
     String relativeConfigPath =
         FileUtil.getRelativePath(project.getRootProject().getProjectDir(), config);
-    ProjectUtil.getPlugin(project.getRootProject()).exportedPaths.add(relativeConfigPath);
+    ProjectUtil.getPlugin(project.getRootProject()).addExportedPath(project, relativeConfigPath);
 
     if (project.getProjectDir().equals(config.getParentFile())) {
       return ":" + config.getName();
@@ -369,7 +369,7 @@ public abstract class AndroidTarget extends JvmTarget {
   }
 
   @Nullable
-  public String getMainManifest() {
+  public synchronized String getMainManifest() {
     if (mainManifest == null) {
       ensureManifest();
     }
@@ -581,7 +581,7 @@ public abstract class AndroidTarget extends JvmTarget {
         .collect(Collectors.toSet());
   }
 
-  String getOriginalPackage() {
+  synchronized String getOriginalPackage() {
     if (originalPackageName == null) {
       Document manifestXml = XmlUtil.loadXml(getProject().file(getMainManifest()));
       originalPackageName = manifestXml.getDocumentElement().getAttribute("package").trim();
@@ -14,9 +14,13 @@ import com.uber.okbuck.core.dependency.DependencyFactory;
 import com.uber.okbuck.core.dependency.DependencyUtils;
 import com.uber.okbuck.core.dependency.OExternalDependency;
 import com.uber.okbuck.core.dependency.VersionlessDependency;
+import com.uber.okbuck.core.dependency.VersionlessSet;
 import com.uber.okbuck.core.util.FileUtil;
+import com.uber.okbuck.core.util.OkBuckProfiler;
 import com.uber.okbuck.core.util.ProjectCache;
 import com.uber.okbuck.core.util.ProjectUtil;
+import com.uber.okbuck.core.util.ResolvedGraphCache;
+import com.uber.okbuck.core.util.ResolvedGraphCache.ResolvedGraph;
 import com.uber.okbuck.extension.ExternalDependenciesExtension;
 import com.uber.okbuck.extension.JetifierExtension;
 import com.uber.okbuck.extension.OkBuckExtension;
@@ -32,6 +36,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.apache.commons.io.FilenameUtils;
@@ -67,6 +72,10 @@ public class Scope {
 
   @Nullable private Set<String> annotationProcessors;
 
+  // External deps only change while the scope is built, so their views are computed once after
+  @Nullable private ExternalDeps firstLevelExternalDeps;
+  @Nullable private ExternalDeps allExternalDeps;
+
   public final Set<String> getJavaResources() {
     return javaResources;
   }
@@ -139,19 +148,43 @@ public class Scope {
   }
 
   public Set<OExternalDependency> getExternalDeps(boolean firstLevel) {
+    return externalDeps(firstLevel).deps;
+  }
+
+  public final Set<OExternalDependency> getExternalDeps() {
+    return getExternalDeps(exportedDepsEnabled());
+  }
+
+  /**
+   * Returns the versionless dependencies of the external deps of the scope, to check whether
+   * another set of deps contains a version of a dependency without hashing its versionless
+   * dependency.
+   */
+  public VersionlessSet getExternalVersionless(boolean firstLevel) {
+    return externalDeps(firstLevel).versionless;
+  }
+
+  public final VersionlessSet getExternalVersionless() {
+    return getExternalVersionless(exportedDepsEnabled());
+  }
+
+  private synchronized ExternalDeps externalDeps(boolean firstLevel) {
     if (configuration != null && firstLevel) {
-      return new HashSet<>(firstLevelExternal.values());
+      if (firstLevelExternalDeps == null) {
+        firstLevelExternalDeps = new ExternalDeps(firstLevelExternal);
+      }
+      return firstLevelExternalDeps;
     } else {
-      return new HashSet<>(allExternal.values());
+      if (allExternalDeps == null) {
+        allExternalDeps = new ExternalDeps(allExternal);
+      }
+      return allExternalDeps;
     }
   }
 
-  public final Set<OExternalDependency> getExternalDeps() {
+  private boolean exportedDepsEnabled() {
     OkBuckExtension okBuckExtension = ProjectUtil.getOkBuckExtension(project);
-    ExternalDependenciesExtension externalDependenciesExtension =
-        okBuckExtension.getExternalDependenciesExtension();
-
-    return getExternalDeps(externalDependenciesExtension.exportedDepsEnabled());
+    return okBuckExtension.getExternalDependenciesExtension().exportedDepsEnabled();
   }
 
   /**
@@ -159,7 +192,7 @@ public class Scope {
    *
    * @return A set containing annotation processor class names.
    */
-  public Set<String> getAnnotationProcessors() {
+  public synchronized Set<String> getAnnotationProcessors() {
     if (configuration == null) {
       return ImmutableSet.of();
     }
@@ -195,6 +228,27 @@ public class Scope {
     return getExternalDeps().stream().anyMatch(depCache::hasAutoValueExtension);
   }
 
+  /**
+   * Check if the external dependencies of the scope were registered to skip prebuilt rules.
+   *
+   * @return boolean whether the scope's dependency cache skips prebuilt rules.
+   */
+  public boolean isSkipPrebuilt() {
+    return depCache.isSkipPrebuilt();
+  }
+
+  /**
+   * Get the raw external dependencies the scope registered to resolve third party dependencies.
+   *
+   * @return The raw external dependencies of the scope's configuration.
+   */
+  public Set<ExternalDependency> getRawDependencies() {
+    if (configuration == null) {
+      return ImmutableSet.of();
+    }
+    return DependencyCache.rawDependencies(configuration.getAllDependencies());
+  }
+
   /**
    * Returns the JvmPlugin for the annotation processor of the scope.
    *
@@ -295,6 +349,16 @@ public class Scope {
       return;
     }
 
+    ResolvedGraphCache resolvedGraphCache = ProjectUtil.getResolvedGraphCache(project);
+    ResolvedGraph cachedGraph = resolvedGraphCache.get(project, configuration);
+    OkBuckProfiler profiler = ProjectUtil.getProfiler(project);
+    if (cachedGraph != null) {
+      profiler.count(OkBuckProfiler.CONFIGURATIONS_RESTORED, 1);
+      restoreConfiguration(cachedGraph);
+      firstLevelExternal.values().forEach(external -> external.updateFirstLevel(true));
+      return;
+    }
+
     // Get first level project deps defined for the project's configuration
     Set<String> projectFirstLevel =
         configuration
@@ -314,57 +378,64 @@ public class Scope {
             .flatMap(Collection::stream)
             .collect(Collectors.toSet());
 
+    profiler.count(OkBuckProfiler.CONFIGURATIONS_RESOLVED, 1);
+
     @Var Set<ResolvedDependency> allModuleDependencies = null;
 
-    if (externalDependenciesExtension.versionedExportedDepsEnabled()) {
-      ResolvedConfiguration resolvedConfiguration = configuration.getResolvedConfiguration();
-      if (resolvedConfiguration.hasError()) {
-        // Throw failure if there was one during resolution
-        resolvedConfiguration.rethrowFailure();
+    try (OkBuckProfiler.Phase ignored =
+        profiler.start("resolveConfiguration", project.getPath() + ":" + configuration.getName())) {
+      if (externalDependenciesExtension.versionedExportedDepsEnabled()) {
+        ResolvedConfiguration resolvedConfiguration = configuration.getResolvedConfiguration();
+        if (resolvedConfiguration.hasError()) {
+          // Throw failure if there was one during resolution
+          resolvedConfiguration.rethrowFailure();
+        }
+
+        Set<ResolvedDependency> firstLevelModuleDependencies =
+            resolvedConfiguration.getLenientConfiguration().getFirstLevelModuleDependencies();
+        allModuleDependencies =
+            resolvedConfiguration.getLenientConfiguration().getAllModuleDependencies();
+
+        // Infer first level project deps from the resolved graph and add to the projectFirstLevel
+        // list. This can happen if there are resolution rules which substitute a direct external
+        // dep with a project dep.
+        Set<String> directProjectDeps =
+            firstLevelModuleDependencies
+                .stream()
+                .map(DependencyUtils::filterProjectDeps)
+                .flatMap(Collection::stream)
+                .collect(Collectors.toSet());
+        projectFirstLevel.addAll(directProjectDeps);
+
+        // Infer transitive project deps of an external dependency from the resolved graph and add
+        // to the projectFirstLevel list. This can happen if there are resolution rules which
+        // substitute a transitive external dep with a project dep.
+        Set<String> transitiveProjectDeps =
+            allModuleDependencies
+                .stream()
+                .filter(DependencyUtils::isExternal)
+                .map(ResolvedDependency::getChildren)
+                .flatMap(Collection::stream)
+                .distinct()
+                .map(DependencyUtils::filterProjectDeps)
+                .flatMap(Collection::stream)
+                .collect(Collectors.toSet());
+        projectFirstLevel.addAll(transitiveProjectDeps);
+
+        Set<VersionlessDependency> firstLevelExternal =
+            firstLevelModuleDependencies
+                .stream()
+                .map(DependencyFactory::fromDependency)
+                .flatMap(Collection::stream)
+                .collect(Collectors.toSet());
+        externalFirstLevel.addAll(firstLevelExternal);
       }
 
-      Set<ResolvedDependency> firstLevelModuleDependencies =
-          resolvedConfiguration.getLenientConfiguration().getFirstLevelModuleDependencies();
-      allModuleDependencies =
-          resolvedConfiguration.getLenientConfiguration().getAllModuleDependencies();
-
-      // Infer first level project deps from the resolved graph and add to the projectFirstLevel
-      // list. This can happen if there are resolution rules which substitute a direct external
-      // dep with a project dep.
-      Set<String> directProjectDeps =
-          firstLevelModuleDependencies
-              .stream()
-              .map(DependencyUtils::filterProjectDeps)
-              .flatMap(Collection::stream)
-              .collect(Collectors.toSet());
-      projectFirstLevel.addAll(directProjectDeps);
-
-      // Infer transitive project deps of an external dependency from the resolved graph and add
-      // to the projectFirstLevel list. This can happen if there are resolution rules which
-      // substitute a transitive external dep with a project dep.
-      Set<String> transitiveProjectDeps =
-          allModuleDependencies
-              .stream()
-              .filter(DependencyUtils::isExternal)
-              .map(ResolvedDependency::getChildren)
-              .flatMap(Collection::stream)
-              .distinct()
-              .map(DependencyUtils::filterProjectDeps)
-              .flatMap(Collection::stream)
-              .collect(Collectors.toSet());
-      projectFirstLevel.addAll(transitiveProjectDeps);
-
-      Set<VersionlessDependency> firstLevelExternal =
-          firstLevelModuleDependencies
-              .stream()
-              .map(DependencyFactory::fromDependency)
-              .flatMap(Collection::stream)
-              .collect(Collectors.toSet());
-      externalFirstLevel.addAll(firstLevelExternal);
+      ResolvedGraph resolvedGraph = new ResolvedGraph();
+      extractConfigurationImpl(configuration, projectFirstLevel, externalFirstLevel, resolvedGraph);
+      resolvedGraphCache.put(project, configuration, resolvedGraph);
     }
 
-    extractConfigurationImpl(configuration, projectFirstLevel, externalFirstLevel);
-
     if (externalDependenciesExtension.versionedExportedDepsEnabled()) {
       Preconditions.checkNotNull(allModuleDependencies);
 
@@ -417,7 +488,8 @@ public class Scope {
   private void extractConfigurationImpl(
       Configuration configuration,
       Set<String> projectFirstLevel,
-      Set<VersionlessDependency> externalFirstLevel) {
+      Set<VersionlessDependency> externalFirstLevel,
+      ResolvedGraph resolvedGraph) {
     DependencyFactory factory = ProjectUtil.getDependencyFactory(project);
 
     Set<ResolvedArtifactResult> jarArtifacts =
@@ -441,9 +513,11 @@ public class Scope {
               ProjectCache.getTargetCache(identifierProject).getTargetForVariant(variant);
           allTargetDeps.add(target);
 
-          if (projectFirstLevel.contains(identifierProject.getPath())) {
+          boolean firstLevel = projectFirstLevel.contains(identifierProject.getPath());
+          if (firstLevel) {
             firstLevelTargetDeps.add(target);
           }
+          resolvedGraph.addTarget(identifierProject.getPath(), variant, firstLevel);
         });
 
     Set<ResolvedArtifactResult> aarOrJarArtifacts =
@@ -486,9 +560,11 @@ public class Scope {
             externalDependency = depCache.get(externalDependency);
             allExternal.put(externalDependency.getVersionless(), externalDependency);
 
-            if (externalFirstLevel.contains(externalDependency.getVersionless())) {
+            boolean firstLevel = externalFirstLevel.contains(externalDependency.getVersionless());
+            if (firstLevel) {
               firstLevelExternal.put(externalDependency.getVersionless(), externalDependency);
             }
+            resolvedGraph.addExternal(externalDependency, firstLevel);
 
           } else {
             String rootProjectPath = project.getRootProject().getProjectDir().getAbsolutePath();
@@ -519,6 +595,7 @@ public class Scope {
               // All all local deps to first level
               firstLevelExternal.put(
                   localExternalDependency.getVersionless(), localExternalDependency);
+              resolvedGraph.addExternal(localExternalDependency, true);
             } catch (IOException e) {
               throw new IllegalStateException(e);
             }
@@ -526,6 +603,51 @@ public class Scope {
         });
   }
 
+  /** Rebuilds the dependencies of the configuration from a graph resolved in a previous run. */
+  private void restoreConfiguration(ResolvedGraph graph) {
+    DependencyFactory factory = ProjectUtil.getDependencyFactory(project);
+
+    graph
+        .getTargets()
+        .forEach(
+            resolvedTarget -> {
+              Target target =
+                  ProjectCache.getTargetCache(project.project(resolvedTarget.getProject()))
+                      .getTargetForVariant(resolvedTarget.getVariant());
+              allTargetDeps.add(target);
+
+              if (resolvedTarget.isFirstLevel()) {
+                firstLevelTargetDeps.add(target);
+              }
+            });
+
+    OkBuckExtension okBuckExtension = ProjectUtil.getOkBuckExtension(project);
+    ExternalDependenciesExtension externalDependenciesExtension =
+        okBuckExtension.getExternalDependenciesExtension();
+    JetifierExtension jetifierExtension = okBuckExtension.getJetifierExtension();
+
+    graph
+        .getExternals()
+        .forEach(
+            resolvedExternal -> {
+              OExternalDependency externalDependency =
+                  depCache.get(
+                      factory.from(
+                          resolvedExternal.getGroup(),
+                          resolvedExternal.getName(),
+                          resolvedExternal.getVersion(),
+                          resolvedExternal.getFile(),
+                          resolvedExternal.getSourceFile(),
+                          externalDependenciesExtension,
+                          jetifierExtension));
+              allExternal.put(externalDependency.getVersionless(), externalDependency);
+
+              if (resolvedExternal.isFirstLevel()) {
+                firstLevelExternal.put(externalDependency.getVersionless(), externalDependency);
+              }
+            });
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -615,12 +737,38 @@ public class Scope {
       Configuration useful = DependencyUtils.useful(configuration);
       String key = useful != null ? useful.getName() : "--none--";
 
-      return ProjectCache.getScopeCache(project)
-          .computeIfAbsent(
-              key,
-              t ->
-                  new Scope(
-                      project, useful, sourceDirs, javaResourceDirs, compilerOptions, depCache));
+      // A scope is built only once per configuration since building it resolves the configuration.
+      // The first caller claims the key with a future and builds the scope outside of the map, as
+      // building a scope can build other scopes of the project. Other callers wait for the future.
+      Map<String, CompletableFuture<Scope>> scopeCache = ProjectCache.getScopeCache(project);
+      CompletableFuture<Scope> claimed = new CompletableFuture<>();
+      CompletableFuture<Scope> cached = scopeCache.computeIfAbsent(key, k -> claimed);
+      if (cached != claimed) {
+        return cached.join();
+      }
+
+      try {
+        Scope scope =
+            new Scope(project, useful, sourceDirs, javaResourceDirs, compilerOptions, depCache);
+        claimed.complete(scope);
+        return scope;
+      } catch (RuntimeException | Error e) {
+        // Let later callers try again instead of failing on this attempt
+        scopeCache.remove(key, claimed);
+        claimed.completeExceptionally(e);
+        throw e;
+      }
+    }
+  }
+
+  /** Immutable external deps of a scope, along with their versionless dependencies. */
+  private static final class ExternalDeps {
+    private final ImmutableSet<OExternalDependency> deps;
+    private final VersionlessSet versionless;
+
+    private ExternalDeps(Map<VersionlessDependency, OExternalDependency> external) {
+      this.deps = ImmutableSet.copyOf(external.values());
+      this.versionless = VersionlessSet.of(deps);
     }
   }
 }
@@ -17,7 +17,7 @@ import com.uber.okbuck.core.annotation.JvmPlugin;
 import com.uber.okbuck.core.dependency.DependencyFactory;
 import com.uber.okbuck.core.dependency.DependencyUtils;
 import com.uber.okbuck.core.dependency.OExternalDependency;
-import com.uber.okbuck.core.dependency.VersionlessDependency;
+import com.uber.okbuck.core.dependency.VersionlessSet;
 import com.uber.okbuck.core.manager.KotlinManager;
 import com.uber.okbuck.core.manager.LintManager;
 import com.uber.okbuck.core.model.base.Scope;
@@ -204,26 +204,24 @@ public class JvmTarget extends Target {
 
   /** api external deps */
   public Set<OExternalDependency> getApiExternalDeps() {
+    return getApiVersionless().filter(getMain().getExternalDeps());
+  }
+
+  private VersionlessSet getApiVersionless() {
     Configuration apiConfiguration = getApiConfiguration();
 
     if (apiConfiguration != null) {
       DependencyFactory factory = ProjectUtil.getDependencyFactory(getProject());
-      Set<VersionlessDependency> versionlessApiDependencies =
+      return factory.versionlessSet(
           apiConfiguration
               .getAllDependencies()
               .withType(ExternalDependency.class)
               .stream()
               .map(factory::fromDependency)
               .flatMap(Collection::stream)
-              .collect(Collectors.toSet());
-
-      return getMain()
-          .getExternalDeps()
-          .stream()
-          .filter(dependency -> versionlessApiDependencies.contains(dependency.getVersionless()))
-          .collect(Collectors.toSet());
+              .collect(Collectors.toSet()));
     } else {
-      return ImmutableSet.of();
+      return VersionlessSet.EMPTY;
     }
   }
 
@@ -681,16 +679,17 @@ public class JvmTarget extends Target {
   public Set<OExternalDependency> getExternalDeps(SourceSetType sourceSetType) {
     switch (sourceSetType) {
       case TEST:
-        return versionlessIntersection(
-            getTest().getExternalDeps(), getTestProvided().getExternalDeps());
+        return getTestProvided().getExternalVersionless().filter(getTest().getExternalDeps());
       case INTEGRATION_TEST:
-        return versionlessIntersection(
-            getIntegrationTest().getExternalDeps(), getIntegrationTestProvided().getExternalDeps());
+        return getIntegrationTestProvided()
+            .getExternalVersionless()
+            .filter(getIntegrationTest().getExternalDeps());
 
       default:
-        return versionlessDifference(
-            versionlessIntersection(getMain().getExternalDeps(), getProvided().getExternalDeps()),
-            getApiExternalDeps());
+        return getProvided()
+            .getExternalVersionless()
+            .andNot(getApiVersionless())
+            .filter(getMain().getExternalDeps());
     }
   }
 
@@ -744,41 +743,22 @@ public class JvmTarget extends Target {
   public Set<OExternalDependency> getExternalProvidedDeps(SourceSetType sourceSetType) {
     switch (sourceSetType) {
       case TEST:
-        return versionlessDifference(
-            getTestProvided().getExternalDeps(), getTest().getExternalDeps());
+        return versionlessDifference(getTestProvided(), getTest());
       case INTEGRATION_TEST:
-        return versionlessDifference(
-            getIntegrationTestProvided().getExternalDeps(), getIntegrationTest().getExternalDeps());
+        return versionlessDifference(getIntegrationTestProvided(), getIntegrationTest());
 
       default:
-        return versionlessDifference(getProvided().getExternalDeps(), getMain().getExternalDeps());
+        return versionlessDifference(getProvided(), getMain());
     }
   }
 
   /*
-   Returns entries in set1 whose versionless counterparts are not in set2
+   Returns a view of the external deps of scope1 whose versionless counterparts are not in scope2
   */
-  private static Set<OExternalDependency> versionlessDifference(
-      Set<OExternalDependency> set1, Set<OExternalDependency> set2) {
-    Set<VersionlessDependency> versionlessSet2 =
-        set2.stream().map(OExternalDependency::getVersionless).collect(Collectors.toSet());
-
-    return set1.stream()
-        .filter(
-            externalDependency -> !versionlessSet2.contains(externalDependency.getVersionless()))
-        .collect(Collectors.toSet());
-  }
-
-  /*
-   Returns entries in set1 whose versionless counterparts are in set2
-  */
-  private static Set<OExternalDependency> versionlessIntersection(
-      Set<OExternalDependency> set1, Set<OExternalDependency> set2) {
-    Set<VersionlessDependency> versionlessSet2 =
-        set2.stream().map(OExternalDependency::getVersionless).collect(Collectors.toSet());
-
-    return set1.stream()
-        .filter(externalDependency -> versionlessSet2.contains(externalDependency.getVersionless()))
-        .collect(Collectors.toSet());
+  private static Set<OExternalDependency> versionlessDifference(Scope scope1, Scope scope2) {
+    return scope1
+        .getExternalVersionless()
+        .andNot(scope2.getExternalVersionless())
+        .filter(scope1.getExternalDeps());
   }
 }
@@ -80,11 +80,15 @@ public class OkBuckCleanTask extends DefaultTask {
                     .resolve(ProjectUtil.getOkBuckExtension(rootProject).buildFileName))
         .forEach(FileUtil::deleteQuietly);
 
-    // Delete old .okbuck/cache dir
-    FileUtil.deleteQuietly(rootProjectPath.resolve(".okbuck/cache"));
-
-    // Delete old .okbuck/gen dir
-    FileUtil.deleteQuietly(rootProjectPath.resolve(".okbuck/gen"));
+    // Stale generated files are removed using the manifest of the last run once all files are
+    // generated. Only walk and delete the old generated dirs if there is no manifest yet.
+    if (!ProjectUtil.getGeneratedFiles(rootProject).hasLastManifest()) {
+      // Delete old .okbuck/cache dir
+      FileUtil.deleteQuietly(rootProjectPath.resolve(".okbuck/cache"));
+
+      // Delete old .okbuck/gen dir
+      FileUtil.deleteQuietly(rootProjectPath.resolve(".okbuck/gen"));
+    }
 
     // Delete old .buckconfig.local
     FileUtil.deleteQuietly(rootProjectPath.resolve(".buckconfig.local"));
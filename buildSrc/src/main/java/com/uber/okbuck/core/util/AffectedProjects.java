@@ -0,0 +1,202 @@
+package com.uber.okbuck.core.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.errorprone.annotations.Var;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.ProjectDependency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Projects affected by the files changed since the last successful okbuck run. The buck wrapper
+ * writes the changed paths reported by watchman to a file passed in the {@value CHANGES_PROPERTY}
+ * system property, one path relative to the root project per line.
+ *
+ * <p>A project is affected if a changed path is in its directory, or if it depends on an affected
+ * project. A changed path outside of all projects, like the root build file or settings, affects
+ * all projects, as does a missing change list. So does a changed gradle script which any project
+ * applies with {@code apply from}, or any script but a build file if some applied script can't be
+ * followed. A project's own build file only affects the project and its dependents.
+ */
+public final class AffectedProjects {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AffectedProjects.class);
+
+  public static final String CHANGES_PROPERTY = "okbuck.changes";
+
+  private static final String[] SCRIPT_EXTENSIONS = {".gradle", ".gradle.kts"};
+  private static final String SETTINGS_SCRIPT = "settings.gradle";
+
+  private static final AffectedProjects ALL = new AffectedProjects(null);
+
+  // Paths of the affected projects, null if all projects are affected
+  @Nullable private final Set<String> affected;
+
+  private AffectedProjects(@Nullable Set<String> affected) {
+    this.affected = affected;
+  }
+
+  /**
+   * Computes the projects affected by the changes reported by the buck wrapper.
+   *
+   * @param rootProject The root project
+   * @param projects The projects okbuck generates
+   * @return The affected projects
+   */
+  public static AffectedProjects fromWrapper(Project rootProject, Collection<Project> projects) {
+    String changesFile = System.getProperty(CHANGES_PROPERTY);
+    if (Strings.isNullOrEmpty(changesFile)) {
+      return ALL;
+    }
+
+    List<String> changes;
+    try {
+      changes =
+          Files.readAllLines(rootProject.file(changesFile).toPath(), UTF_8)
+              .stream()
+              .map(String::trim)
+              .filter(change -> !change.isEmpty())
+              .collect(Collectors.toList());
+    } catch (IOException e) {
+      LOG.warn("Ignoring unreadable change list {}", changesFile, e);
+      return ALL;
+    }
+
+    Path rootDir = rootProject.getProjectDir().toPath().toAbsolutePath();
+    Set<Path> buildFiles =
+        projects
+            .stream()
+            .map(project -> project.getBuildFile().toPath().toAbsolutePath().normalize())
+            .collect(Collectors.toSet());
+    // Only read the build files of all projects if a script changed
+    @Nullable
+    Set<Path> appliedScripts =
+        changes.stream().anyMatch(AffectedProjects::isScript)
+            ? appliedScripts(projects)
+            : ImmutableSet.of();
+    Set<String> changed = new HashSet<>();
+    for (String change : changes) {
+      Path path = rootDir.resolve(change).normalize();
+      if (isScript(change)) {
+        if (path.getFileName().toString().startsWith(SETTINGS_SCRIPT)) {
+          LOG.info("{} is a settings script, all projects are affected", change);
+          return ALL;
+        }
+        if (appliedScripts == null ? !buildFiles.contains(path) : appliedScripts.contains(path)) {
+          LOG.info("{} may be applied by other scripts, all projects are affected", change);
+          return ALL;
+        }
+      }
+      Project owner = owner(path, rootProject, projects);
+      if (owner == null) {
+        LOG.info("{} is not in any project, all projects are affected", change);
+        return ALL;
+      }
+      changed.add(owner.getPath());
+    }
+
+    Set<String> affected = withDependents(changed, projects);
+    LOG.info(
+        "{} changed files affect {} of {} projects",
+        changes.size(),
+        affected.size(),
+        projects.size());
+    return new AffectedProjects(affected);
+  }
+
+  /**
+   * Whether the project may have to be generated again.
+   *
+   * @param project The project to check
+   * @return False if none of the changes affect the project
+   */
+  public boolean isAffected(Project project) {
+    return affected == null || affected.contains(project.getPath());
+  }
+
+  private static boolean isScript(String change) {
+    for (String extension : SCRIPT_EXTENSIONS) {
+      if (change.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the scripts applied by any of the projects, null if any can't be followed. */
+  @Nullable
+  private static Set<Path> appliedScripts(Collection<Project> projects) {
+    Set<Path> scripts = new HashSet<>();
+    for (Project project : projects) {
+      Set<Path> applied = FingerprintUtil.appliedScripts(project);
+      if (applied == null) {
+        return null;
+      }
+      scripts.addAll(applied);
+    }
+    return scripts;
+  }
+
+  /** Returns the project with the deepest directory containing the path. */
+  @Nullable
+  private static Project owner(Path path, Project rootProject, Collection<Project> projects) {
+    @Var @Nullable Project owner = null;
+    @Var int ownerDepth = -1;
+    for (Project project : projects) {
+      if (project == rootProject) {
+        continue;
+      }
+      Path projectDir = project.getProjectDir().toPath();
+      if (path.startsWith(projectDir) && projectDir.getNameCount() > ownerDepth) {
+        owner = project;
+        ownerDepth = projectDir.getNameCount();
+      }
+    }
+    return owner;
+  }
+
+  private static Set<String> withDependents(Set<String> changed, Collection<Project> projects) {
+    SetMultimap<String, String> dependents = HashMultimap.create();
+    projects.forEach(
+        project ->
+            project
+                .getConfigurations()
+                .forEach(
+                    configuration ->
+                        configuration
+                            .getDependencies()
+                            .withType(ProjectDependency.class)
+                            .forEach(
+                                dependency ->
+                                    dependents.put(
+                                        dependency.getDependencyProject().getPath(),
+                                        project.getPath()))));
+
+    Set<String> affected = new HashSet<>(changed);
+    Deque<String> queue = new ArrayDeque<>(changed);
+    while (!queue.isEmpty()) {
+      for (String dependent : dependents.get(queue.remove())) {
+        if (affected.add(dependent)) {
+          queue.add(dependent);
+        }
+      }
+    }
+    return affected;
+  }
+}
@@ -0,0 +1,83 @@
+package com.uber.okbuck.core.util;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the state okbuck persists under {@code .okbuck/state} in memory, so that runs on a long
+ * lived gradle daemon reuse it instead of parsing it again. A state file is only taken from memory
+ * if it was not modified since this JVM wrote it.
+ *
+ * <p>Gradle uses a daemon by default, so state is only kept in memory if the wrapper opted into it
+ * with {@code wrapper.daemon}, which sets the {@value #DAEMON_PROPERTY} system property. Otherwise
+ * every run reads its state from disk and nothing outlives the run.
+ *
+ * <p>States handed out are shared between runs and must not be modified.
+ */
+public final class DaemonState {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DaemonState.class);
+
+  public static final String DAEMON_PROPERTY = "okbuck.daemon";
+
+  private static final Map<String, Entry> STATES = new ConcurrentHashMap<>();
+
+  private DaemonState() {}
+
+  /**
+   * Returns the state last written to the file by this JVM if the file did not change since and
+   * state is kept in memory, or reads it from the file otherwise.
+   *
+   * @param file The state file
+   * @param reader Reads the state from the file
+   * @return The state of the file
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T read(File file, Supplier<T> reader) {
+    if (!isEnabled()) {
+      STATES.clear();
+      return reader.get();
+    }
+    String key = file.getAbsolutePath();
+    Entry entry = STATES.remove(key);
+    if (entry != null && entry.length == file.length() && entry.modified == file.lastModified()) {
+      LOG.info("Reusing state of {} kept in memory", file);
+      return (T) entry.state;
+    }
+    return reader.get();
+  }
+
+  /**
+   * Keeps the state just written to the file in memory for the next run, if state is kept in
+   * memory.
+   *
+   * @param file The state file
+   * @param state The state written to the file
+   */
+  public static void written(File file, Object state) {
+    if (!isEnabled()) {
+      return;
+    }
+    STATES.put(file.getAbsolutePath(), new Entry(state, file.length(), file.lastModified()));
+  }
+
+  private static boolean isEnabled() {
+    return Boolean.getBoolean(DAEMON_PROPERTY);
+  }
+
+  private static final class Entry {
+    private final Object state;
+    private final long length;
+    private final long modified;
+
+    private Entry(Object state, long length, long modified) {
+      this.state = state;
+      this.length = length;
+      this.modified = modified;
+    }
+  }
+}
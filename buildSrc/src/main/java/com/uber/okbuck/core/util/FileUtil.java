@@ -3,8 +3,8 @@ package com.uber.okbuck.core.util;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.errorprone.annotations.Var;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.uber.okbuck.core.util.symlinks.SymlinkCreator;
 import com.uber.okbuck.core.util.symlinks.SymlinkCreatorFactory;
@@ -12,14 +12,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Reader;
-import java.io.Writer;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.Project;
@@ -31,6 +33,7 @@ public final class FileUtil {
   private static final SymlinkCreator symlinkCreator = SymlinkCreatorFactory.getSymlinkCreator();
 
   private static final String DS_STORE = ".DS_Store";
+  private static final int MAX_TEMP_FILE_ATTEMPTS = 100;
 
   private FileUtil() {}
 
@@ -61,6 +64,10 @@ public final class FileUtil {
     }
   }
 
+  /**
+   * Copies a resource into the project without recording it as generated. Only for files which are
+   * not regenerated by every okbuck run, which would otherwise be removed as stale.
+   */
   public static void copyResourceToProject(String resource, File destination) {
     try {
       FileUtils.copyURLToFile(FileUtil.class.getResource(resource), destination);
@@ -69,6 +76,18 @@ public final class FileUtil {
     }
   }
 
+  /**
+   * Copies a resource into the project and records it in the generated files of the run.
+   *
+   * @param project Any project of the build
+   * @param resource The resource to copy
+   * @param destination The file to copy it to
+   */
+  public static void copyResourceToProject(Project project, String resource, File destination) {
+    copyResourceToProject(resource, destination);
+    ProjectUtil.getGeneratedFiles(project).record(destination.toPath());
+  }
+
   public static ImmutableSet<String> available(Project project, Collection<File> files) {
     return files
         .stream()
@@ -132,6 +151,42 @@ public final class FileUtil {
     }
   }
 
+  /**
+   * Creates an empty temporary file next to the target, to be moved over it once written. Unlike
+   * {@link Files#createTempFile}, which restricts new files to their owner on posix file systems,
+   * the file gets the permissions of the existing target, or the defaults of the process' umask.
+   *
+   * @param target The file the temporary file replaces
+   * @param suffix The suffix of the temporary file
+   * @return The created temporary file
+   */
+  public static Path createTempSibling(Path target, String suffix) throws IOException {
+    Path absoluteTarget = target.toAbsolutePath();
+    Path parent = absoluteTarget.getParent();
+    for (@Var int attempt = 0; ; attempt++) {
+      Path temp =
+          parent.resolve(
+              absoluteTarget.getFileName()
+                  + "."
+                  + Long.toUnsignedString(ThreadLocalRandom.current().nextLong())
+                  + suffix);
+      try {
+        Files.createFile(temp);
+      } catch (FileAlreadyExistsException e) {
+        if (attempt >= MAX_TEMP_FILE_ATTEMPTS) {
+          throw e;
+        }
+        continue;
+      }
+
+      if (Files.isRegularFile(absoluteTarget)
+          && Files.getFileStore(temp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+        Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(absoluteTarget));
+      }
+      return temp;
+    }
+  }
+
   public static void symlink(Path link, Path target) {
     try {
       LOG.info("Creating symlink {} -> {}", link, target);
@@ -143,17 +198,9 @@ public final class FileUtil {
   }
 
   public static HashMap<String, String> readMapFromJsonFile(File file) throws IOException {
-    Reader fileReader = Files.newBufferedReader(file.toPath(), UTF_8);
-    Gson gson = new Gson();
-    return gson.fromJson(fileReader, new TypeToken<HashMap<String, String>>() {}.getType());
-  }
-
-  public static void persistMapToJsonFile(HashMap<String, String> map, File file)
-      throws IOException {
-    Writer writer = Files.newBufferedWriter(file.toPath(), UTF_8);
-    Gson gson = new GsonBuilder().setPrettyPrinting().create();
-    gson.toJson(map, writer);
-    writer.flush();
-    writer.close();
+    try (Reader fileReader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+      Gson gson = new Gson();
+      return gson.fromJson(fileReader, new TypeToken<HashMap<String, String>>() {}.getType());
+    }
   }
 }
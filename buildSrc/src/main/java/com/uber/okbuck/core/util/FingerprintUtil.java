@@ -0,0 +1,480 @@
+package com.uber.okbuck.core.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.errorprone.annotations.Var;
+import com.uber.okbuck.OkBuckGradlePlugin;
+import com.uber.okbuck.extension.OkBuckExtension;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.gradle.StartParameter;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.DependencyArtifact;
+import org.gradle.api.artifacts.ExcludeRule;
+import org.gradle.api.artifacts.ExternalDependency;
+import org.gradle.api.artifacts.ExternalModuleDependency;
+import org.gradle.api.artifacts.FileCollectionDependency;
+import org.gradle.api.artifacts.ModuleDependency;
+import org.gradle.api.artifacts.ProjectDependency;
+import org.gradle.api.artifacts.repositories.ArtifactRepository;
+import org.gradle.api.artifacts.repositories.MavenArtifactRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Helpers to fingerprint the inputs of okbuck's persistent state caches. */
+final class FingerprintUtil {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FingerprintUtil.class);
+
+  private static final String EXTENSION_PACKAGE = "com.uber.okbuck.extension";
+
+  // Matches the argument of groovy's `apply from: ...` and kotlin's `apply(from = ...)`
+  private static final Pattern APPLY_FROM =
+      Pattern.compile("apply\\s*\\(?\\s*from\\s*[:=]\\s*([^\\n;]+)");
+  // Matches the body of `apply { ... }` blocks and the arguments of the `from(...)` calls in them
+  private static final Pattern APPLY_BLOCK = Pattern.compile("apply\\s*\\{([^}]*)}");
+  private static final Pattern FROM_CALL = Pattern.compile("\\bfrom\\s*\\(([^)\\n]+)\\)");
+  private static final Pattern STRING_LITERAL = Pattern.compile("[\"']([^\"']+)[\"']");
+  private static final Pattern ROOT_DIR =
+      Pattern.compile("^\\$\\{?(rootDir|rootProject\\.projectDir|rootProject\\.rootDir)}?/?");
+  private static final Pattern PROJECT_DIR = Pattern.compile("^\\$\\{?(projectDir)}?/?");
+  private static final Set<String> SCRIPT_EXTENSIONS = ImmutableSet.of("gradle", "kts");
+  private static final Set<String> SKIPPED_DIRS = ImmutableSet.of("build", ".gradle", ".okbuck");
+  private static final List<String> SETTINGS_SCRIPTS =
+      ImmutableList.of("settings.gradle", "settings.gradle.kts");
+
+  // Properties set for every okbuck run by the buck wrapper which don't change what is generated
+  private static final Set<String> IGNORED_SYSTEM_PROPERTIES =
+      ImmutableSet.of(AffectedProjects.CHANGES_PROPERTY, DaemonState.DAEMON_PROPERTY);
+  private static final String JETIFIER_PROPERTY = "android.enableJetifier";
+
+  private FingerprintUtil() {}
+
+  /**
+   * Fingerprints the inputs shared by all projects: okbuck itself, the gradle and java versions,
+   * the root build and settings files along with the scripts they apply, the properties passed on
+   * the command line and the okbuck extension.
+   *
+   * <p>Scripts applied with an argument that can't be followed, like one computed from variables,
+   * make all gradle scripts of the build part of the fingerprint.
+   */
+  static String rootFingerprint(Project rootProject, OkBuckExtension okBuckExtension) {
+    Hasher hasher = Hashing.sha256().newHasher();
+
+    // Changes to okbuck itself can change the generated output
+    CodeSource codeSource = OkBuckGradlePlugin.class.getProtectionDomain().getCodeSource();
+    if (codeSource != null && codeSource.getLocation() != null) {
+      File pluginLocation = new File(codeSource.getLocation().getPath());
+      putString(
+          hasher,
+          pluginLocation.getAbsolutePath()
+              + "@"
+              + pluginLocation.length()
+              + "@"
+              + pluginLocation.lastModified());
+    }
+
+    putString(hasher, rootProject.getGradle().getGradleVersion());
+    putString(hasher, System.getProperty("java.version"));
+    putFile(hasher, rootProject.getBuildFile());
+    putAppliedScripts(hasher, rootProject);
+    for (String settingsScript : SETTINGS_SCRIPTS) {
+      File settingsFile = rootProject.file(settingsScript);
+      putFile(hasher, settingsFile);
+      putAppliedScripts(hasher, rootProject, settingsFile);
+    }
+    putFile(hasher, rootProject.file("gradle.properties"));
+
+    // Properties passed with -P and -D can configure the build, as can user wide properties
+    StartParameter startParameter = rootProject.getGradle().getStartParameter();
+    putString(hasher, canonical(startParameter.getProjectProperties()));
+    putString(
+        hasher,
+        canonical(
+            Maps.filterKeys(
+                startParameter.getSystemPropertiesArgs(),
+                key -> !IGNORED_SYSTEM_PROPERTIES.contains(key))));
+    putString(hasher, String.valueOf(rootProject.findProperty(JETIFIER_PROPERTY)));
+    rootProject
+        .getBuildscript()
+        .getConfigurations()
+        .stream()
+        .flatMap(configuration -> configuration.getDependencies().stream())
+        .map(
+            dependency ->
+                dependency.getGroup() + ":" + dependency.getName() + ":" + dependency.getVersion())
+        .sorted()
+        .forEach(dependency -> putString(hasher, dependency));
+    putString(hasher, canonical(okBuckExtension));
+
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Describes a declared dependency.
+   *
+   * @param dependency The dependency to describe
+   * @param projectFingerprint Fingerprints the project of a project dependency
+   * @return A stable description of the dependency
+   */
+  static String describe(Dependency dependency, Function<Project, String> projectFingerprint) {
+    StringBuilder builder = new StringBuilder();
+    if (dependency instanceof ProjectDependency) {
+      Project dependencyProject = ((ProjectDependency) dependency).getDependencyProject();
+      builder
+          .append("project:")
+          .append(dependencyProject.getPath())
+          .append(":")
+          .append(projectFingerprint.apply(dependencyProject));
+    } else if (dependency instanceof FileCollectionDependency) {
+      builder.append("files:");
+      ((FileCollectionDependency) dependency)
+          .getFiles()
+          .getFiles()
+          .stream()
+          .sorted()
+          .forEach(
+              file ->
+                  builder
+                      .append(file.getAbsolutePath())
+                      .append("@")
+                      .append(file.length())
+                      .append("@")
+                      .append(file.lastModified())
+                      .append(","));
+    } else {
+      builder
+          .append(dependency.getGroup())
+          .append(":")
+          .append(dependency.getName())
+          .append(":")
+          .append(dependency.getVersion());
+    }
+
+    if (dependency instanceof ModuleDependency) {
+      ModuleDependency moduleDependency = (ModuleDependency) dependency;
+      builder.append(":").append(moduleDependency.getTargetConfiguration());
+      builder.append(":").append(moduleDependency.isTransitive());
+      moduleDependency
+          .getArtifacts()
+          .stream()
+          .map(FingerprintUtil::describeArtifact)
+          .sorted()
+          .forEach(artifact -> builder.append(":").append(artifact));
+      moduleDependency
+          .getExcludeRules()
+          .stream()
+          .map(FingerprintUtil::describeExclude)
+          .sorted()
+          .forEach(exclude -> builder.append(":").append(exclude));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Whether the dependency always resolves to the same version. Dynamic, changing and snapshot
+   * versions can resolve differently without any of the build's inputs changing.
+   */
+  static boolean isStable(ExternalDependency dependency) {
+    if (dependency instanceof ExternalModuleDependency
+        && ((ExternalModuleDependency) dependency).isChanging()) {
+      return false;
+    }
+    return isStableVersion(dependency.getVersion());
+  }
+
+  /** Whether the version always resolves the same, see {@link #isStable(ExternalDependency)}. */
+  static boolean isStableVersion(@Nullable String version) {
+    return version == null
+        || !(version.contains("+")
+            || version.startsWith("[")
+            || version.startsWith("]")
+            || version.startsWith("(")
+            || version.startsWith("latest.")
+            || version.endsWith("-SNAPSHOT"));
+  }
+
+  private static String describeArtifact(DependencyArtifact artifact) {
+    return "artifact="
+        + artifact.getName()
+        + "@"
+        + artifact.getClassifier()
+        + "@"
+        + artifact.getExtension()
+        + "@"
+        + artifact.getType();
+  }
+
+  private static String describeExclude(ExcludeRule rule) {
+    return "exclude=" + rule.getGroup() + "@" + rule.getModule();
+  }
+
+  static List<String> repositories(Project project) {
+    List<String> repositories = new ArrayList<>();
+    for (ArtifactRepository repository : project.getRepositories()) {
+      if (repository instanceof MavenArtifactRepository) {
+        repositories.add(
+            repository.getName() + "=" + ((MavenArtifactRepository) repository).getUrl());
+      } else {
+        repositories.add(repository.getName());
+      }
+    }
+    return repositories;
+  }
+
+  /**
+   * Returns a stable string representation of the extension values. Objects from the extension
+   * package are expanded field by field, collections are sorted where order doesn't matter.
+   */
+  static String canonical(@Nullable Object value) {
+    if (value == null) {
+      return "null";
+    } else if (value instanceof Project) {
+      return ((Project) value).getPath();
+    } else if (value instanceof Map) {
+      return ((Map<?, ?>) value)
+          .entrySet()
+          .stream()
+          .map(entry -> canonical(entry.getKey()) + "=" + canonical(entry.getValue()))
+          .sorted()
+          .collect(Collectors.joining(",", "{", "}"));
+    } else if (value instanceof Set) {
+      return ((Set<?>) value)
+          .stream()
+          .map(FingerprintUtil::canonical)
+          .sorted()
+          .collect(Collectors.joining(",", "[", "]"));
+    } else if (value instanceof Collection) {
+      return ((Collection<?>) value)
+          .stream()
+          .map(FingerprintUtil::canonical)
+          .collect(Collectors.joining(",", "[", "]"));
+    } else if (value.getClass().getName().startsWith(EXTENSION_PACKAGE)) {
+      StringBuilder builder = new StringBuilder("(");
+      @Var Class<?> clazz = value.getClass();
+      while (clazz != null && clazz.getName().startsWith(EXTENSION_PACKAGE)) {
+        // Skip gradle's generated subclasses of extensions
+        if (!clazz.getName().endsWith("_Decorated")) {
+          for (Field field : clazz.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+              continue;
+            }
+            field.setAccessible(true);
+            try {
+              builder
+                  .append(field.getName())
+                  .append("=")
+                  .append(canonical(field.get(value)))
+                  .append(";");
+            } catch (IllegalAccessException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+        }
+        clazz = clazz.getSuperclass();
+      }
+      return builder.append(")").toString();
+    } else {
+      return value.toString();
+    }
+  }
+
+  /**
+   * Hashes the scripts a project's build file applies with {@code apply from}, along with the
+   * scripts they apply in turn. Arguments which are not a plain path relative to the project or
+   * root directory can't be followed, in which case all gradle scripts of the build are hashed.
+   */
+  static void putAppliedScripts(Hasher hasher, Project project) {
+    putAppliedScripts(hasher, project, project.getBuildFile());
+  }
+
+  private static void putAppliedScripts(Hasher hasher, Project project, File script) {
+    boolean followed =
+        visitAppliedScripts(
+            project,
+            script,
+            applied -> {
+              putString(hasher, FileUtil.getRelativePath(project.getRootDir(), applied));
+              putFile(hasher, applied);
+            },
+            url -> putString(hasher, url));
+    if (!followed) {
+      allScripts(project.getRootProject()).forEach(file -> putFile(hasher, file));
+    }
+  }
+
+  /**
+   * Returns the scripts a project's build file applies with {@code apply from}, along with the
+   * scripts they apply in turn.
+   *
+   * @param project The project to find the applied scripts of
+   * @return The normalized absolute paths of the applied scripts, null if any can't be followed
+   */
+  @Nullable
+  static Set<Path> appliedScripts(Project project) {
+    Set<Path> scripts = new HashSet<>();
+    boolean followed =
+        visitAppliedScripts(
+            project,
+            project.getBuildFile(),
+            applied -> scripts.add(applied.toPath().toAbsolutePath().normalize()),
+            url -> {});
+    return followed ? scripts : null;
+  }
+
+  /**
+   * Visits the scripts applied from the given script of the project, breadth first. Remote scripts
+   * are only visited by their url.
+   *
+   * @return False if an applied script can't be followed, in which case visiting stops
+   */
+  private static boolean visitAppliedScripts(
+      Project project,
+      File startScript,
+      Consumer<File> scriptVisitor,
+      Consumer<String> urlVisitor) {
+    Set<File> visited = new HashSet<>();
+    Deque<File> queue = new ArrayDeque<>();
+    queue.add(startScript);
+    while (!queue.isEmpty()) {
+      File script = queue.remove();
+      if (!visited.add(script) || !script.isFile()) {
+        continue;
+      }
+
+      String content;
+      try {
+        content = Files.asCharSource(script, UTF_8).read();
+      } catch (IOException e) {
+        throw new IllegalStateException("Couldn't read " + script, e);
+      }
+
+      for (String argument : applyFromArguments(content)) {
+        File applied = resolveScript(project, script, argument);
+        if (applied == null) {
+          if (argument.matches("^[\"']https?://.*")) {
+            urlVisitor.accept(argument);
+            continue;
+          }
+          LOG.info("Can't follow {} applied in {}", argument, script);
+          return false;
+        }
+        scriptVisitor.accept(applied);
+        queue.add(applied);
+      }
+    }
+    return true;
+  }
+
+  /** Returns the arguments of all {@code apply from} statements and blocks of the script. */
+  private static List<String> applyFromArguments(String content) {
+    List<String> arguments = new ArrayList<>();
+    Matcher applyFrom = APPLY_FROM.matcher(content);
+    while (applyFrom.find()) {
+      arguments.add(applyFrom.group(1).trim());
+    }
+    Matcher applyBlock = APPLY_BLOCK.matcher(content);
+    while (applyBlock.find()) {
+      Matcher from = FROM_CALL.matcher(applyBlock.group(1));
+      while (from.find()) {
+        arguments.add(from.group(1).trim());
+      }
+    }
+    return arguments;
+  }
+
+  @Nullable
+  private static File resolveScript(Project project, File script, String argument) {
+    Matcher literal = STRING_LITERAL.matcher(argument);
+    if (!literal.find()) {
+      return null;
+    }
+
+    @Var String path = literal.group(1);
+    @Var File baseDir = project.getProjectDir();
+    Matcher rootDir = ROOT_DIR.matcher(path);
+    Matcher projectDir = PROJECT_DIR.matcher(path);
+    if (rootDir.find()) {
+      path = path.substring(rootDir.end());
+      baseDir = project.getRootDir();
+    } else if (projectDir.find()) {
+      path = path.substring(projectDir.end());
+    } else if (argument.contains("rootProject.file")) {
+      baseDir = project.getRootDir();
+    }
+    if (path.contains("$") || path.contains("://")) {
+      return null;
+    }
+
+    File file = new File(path).isAbsolute() ? new File(path) : new File(baseDir, path);
+    if (!file.isFile()) {
+      // Scripts applied from other scripts may be relative to the applying script
+      File sibling = new File(script.getParentFile(), path);
+      return sibling.isFile() ? sibling : null;
+    }
+    return file;
+  }
+
+  /** Returns all gradle scripts of the build, sorted by path. */
+  private static List<File> allScripts(Project rootProject) {
+    try (Stream<Path> files = java.nio.file.Files.walk(rootProject.getRootDir().toPath())) {
+      return files
+          .filter(
+              file -> {
+                for (Path name : rootProject.getRootDir().toPath().relativize(file)) {
+                  if (SKIPPED_DIRS.contains(name.toString())) {
+                    return false;
+                  }
+                }
+                return SCRIPT_EXTENSIONS.contains(Files.getFileExtension(file.toString()));
+              })
+          .map(Path::toFile)
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't list the gradle scripts of " + rootProject, e);
+    }
+  }
+
+  static void putString(Hasher hasher, String value) {
+    hasher.putString(value, UTF_8).putByte((byte) 0);
+  }
+
+  static void putFile(Hasher hasher, File file) {
+    if (!file.isFile()) {
+      putString(hasher, "missing");
+      return;
+    }
+    try {
+      putString(hasher, Files.asByteSource(file).hash(Hashing.sha256()).toString());
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't hash " + file, e);
+    }
+  }
+}
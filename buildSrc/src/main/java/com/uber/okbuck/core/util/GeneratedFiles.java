@@ -0,0 +1,204 @@
+package com.uber.okbuck.core.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manifest of the files okbuck generates, like buck files and dependency symlinks. Every path
+ * generated in a run is recorded and persisted under {@code .okbuck/state}, one path relative to
+ * the root project per line after a version header.
+ *
+ * <p>Once a run is done, only the paths of the last manifest which were not generated again are
+ * deleted, so the generated directories never have to be walked. Without a last manifest, callers
+ * fall back to cleaning up the whole directories.
+ */
+public final class GeneratedFiles {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GeneratedFiles.class);
+
+  private static final int DELETE_BATCH_SIZE = 256;
+
+  // First line of the manifest. Bumped whenever more outputs are recorded, so that a manifest
+  // missing some of them is ignored once and the generated directories are cleaned up instead.
+  private static final String MANIFEST_HEADER = "# okbuck generated files v2";
+
+  private final Path rootDir;
+  private final File stateFile;
+  private final Set<Path> currentFiles = Sets.newConcurrentHashSet();
+
+  public GeneratedFiles(Path rootDir, File stateFile) {
+    this.rootDir = rootDir.toAbsolutePath().normalize();
+    this.stateFile = stateFile;
+  }
+
+  /**
+   * Whether a manifest of the last run exists, in which case stale files are removed from it.
+   *
+   * @return False if stale files have to be found by walking the generated directories
+   */
+  public boolean hasLastManifest() {
+    if (!stateFile.isFile()) {
+      return false;
+    }
+
+    try (Stream<String> lines = Files.lines(stateFile.toPath(), UTF_8)) {
+      return lines.findFirst().map(MANIFEST_HEADER::equals).orElse(false);
+    } catch (IOException | UncheckedIOException e) {
+      LOG.warn("Ignoring unreadable generated files manifest {}", stateFile, e);
+      return false;
+    }
+  }
+
+  /**
+   * Records a file generated in this run.
+   *
+   * @param file The generated file, symlink or directory
+   */
+  public void record(Path file) {
+    currentFiles.add(relativize(file));
+  }
+
+  /**
+   * Deletes the paths of the last manifest which were not generated in this run, in batches on a
+   * bounded pool. Directories left empty by the deletions are removed as well.
+   *
+   * @param parallelism The maximum number of threads to delete on
+   * @param profiler The profiler to count the deleted files with
+   */
+  public void removeStale(int parallelism, OkBuckProfiler profiler) {
+    Set<Path> stale = Sets.difference(readLastFiles(), currentFiles).immutableCopy();
+    if (stale.isEmpty()) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    List<List<Path>> batches = Lists.partition(new ArrayList<>(stale), DELETE_BATCH_SIZE);
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(parallelism, batches.size())));
+    try {
+      pool.submit(() -> batches.parallelStream().forEach(this::delete)).join();
+    } finally {
+      pool.shutdown();
+    }
+    removeEmptyParents(stale);
+
+    profiler.count(OkBuckProfiler.STALE_FILES_DELETED, stale.size());
+    LOG.info(
+        "Deleted {} stale generated files in {} ms",
+        stale.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /** Persists the paths generated in this run as the manifest for the next run. */
+  public void persist() {
+    try {
+      Files.createDirectories(stateFile.toPath().toAbsolutePath().getParent());
+      Files.write(
+          stateFile.toPath(),
+          Stream.concat(
+                  Stream.of(MANIFEST_HEADER),
+                  currentFiles.stream().map(Path::toString).sorted())
+              .collect(MoreCollectors.toImmutableList()),
+          UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't persist generated files", e);
+    }
+  }
+
+  private void delete(Collection<Path> files) {
+    for (Path file : files) {
+      Path path = rootDir.resolve(file);
+      if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        FileUtil.deleteQuietly(path);
+      } else {
+        try {
+          Files.deleteIfExists(path);
+        } catch (IOException e) {
+          throw new IllegalStateException("Couldn't delete stale file " + path, e);
+        }
+      }
+    }
+  }
+
+  /** Removes the empty directories above the deleted paths, deepest first. */
+  private void removeEmptyParents(Set<Path> deleted) {
+    TreeSet<Path> parents =
+        new TreeSet<>(
+            Comparator.comparingInt(Path::getNameCount)
+                .reversed()
+                .thenComparing(Comparator.naturalOrder()));
+    deleted.stream().map(Path::getParent).filter(Objects::nonNull).forEach(parents::add);
+
+    while (!parents.isEmpty()) {
+      Path parent = parents.pollFirst();
+      Path dir = rootDir.resolve(parent);
+      if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+        continue;
+      }
+      try (Stream<Path> children = Files.list(dir)) {
+        if (children.findAny().isPresent()) {
+          continue;
+        }
+      } catch (IOException e) {
+        LOG.warn("Couldn't list {}", dir, e);
+        continue;
+      }
+      try {
+        Files.delete(dir);
+      } catch (IOException e) {
+        LOG.warn("Couldn't delete empty directory {}", dir, e);
+        continue;
+      }
+      Path grandParent = parent.getParent();
+      if (grandParent != null) {
+        parents.add(grandParent);
+      }
+    }
+  }
+
+  private Set<Path> readLastFiles() {
+    if (!hasLastManifest()) {
+      return ImmutableSet.of();
+    }
+
+    try (Stream<String> lines = Files.lines(stateFile.toPath(), UTF_8)) {
+      return lines
+          .skip(1)
+          .map(String::trim)
+          .filter(line -> !line.isEmpty())
+          .map(line -> rootDir.getFileSystem().getPath(line))
+          // Never delete anything outside of the root project
+          .filter(path -> !path.isAbsolute())
+          .filter(path -> rootDir.resolve(path).normalize().startsWith(rootDir))
+          .collect(Collectors.toSet());
+    } catch (IOException e) {
+      LOG.warn("Ignoring unreadable generated files manifest {}", stateFile, e);
+      return ImmutableSet.of();
+    }
+  }
+
+  private Path relativize(Path file) {
+    return rootDir.relativize(file.toAbsolutePath().normalize());
+  }
+}
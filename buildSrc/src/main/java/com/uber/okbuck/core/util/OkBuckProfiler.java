@@ -0,0 +1,259 @@
+package com.uber.okbuck.core.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures where time goes during an okbuck run. Phases are timed with {@link #start(String)} and
+ * events are counted with {@link #count(String, long)}. Once the run is done, a summary and a trace
+ * loadable in chrome://tracing are written out. The summary also holds the peak heap usage of the
+ * run.
+ *
+ * <p>A disabled profiler records nothing and writes nothing.
+ */
+public final class OkBuckProfiler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OkBuckProfiler.class);
+
+  public static final String SUMMARY_FILE = "summary.json";
+  public static final String TRACE_FILE = "trace.json";
+
+  public static final String CONFIGURATIONS_RESOLVED = "configurationsResolved";
+  public static final String CONFIGURATIONS_RESTORED = "configurationsRestored";
+  public static final String BUCK_FILES_WRITTEN = "buckFilesWritten";
+  public static final String BUCK_FILES_UNCHANGED = "buckFilesUnchanged";
+  public static final String SYMLINKS_CREATED = "symlinksCreated";
+  public static final String STALE_FILES_DELETED = "staleFilesDeleted";
+  public static final String FILES_HASHED = "filesHashed";
+  public static final String BYTES_HASHED = "bytesHashed";
+  public static final String PROCESSOR_SCOPE_HITS = "processorScopeHits";
+  public static final String PROCESSOR_SCOPE_MISSES = "processorScopeMisses";
+
+  private static final Phase NO_OP = () -> {};
+
+  private final boolean enabled;
+  private final long startNanos = System.nanoTime();
+  private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+  private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+  public OkBuckProfiler(boolean enabled) {
+    this.enabled = enabled;
+    if (enabled) {
+      heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+  }
+
+  /**
+   * Starts timing a phase. The phase ends when the returned handle is closed.
+   *
+   * @param name The name of the phase
+   * @return A handle to end the phase with
+   */
+  public Phase start(String name) {
+    return start(name, null);
+  }
+
+  /**
+   * Starts timing a phase. The phase ends when the returned handle is closed.
+   *
+   * @param name The name of the phase
+   * @param detail What the phase is run for, like a project path
+   * @return A handle to end the phase with
+   */
+  public Phase start(String name, @Nullable String detail) {
+    if (!enabled) {
+      return NO_OP;
+    }
+
+    long start = System.nanoTime();
+    Thread thread = Thread.currentThread();
+    return () ->
+        events.add(
+            new Event(
+                name, detail, thread.getName(), thread.getId(), start, System.nanoTime() - start));
+  }
+
+  /**
+   * Times a phase running the given action.
+   *
+   * @param name The name of the phase
+   * @param action The action to run
+   */
+  public void time(String name, Runnable action) {
+    try (Phase ignored = start(name)) {
+      action.run();
+    }
+  }
+
+  /**
+   * Adds to a counter.
+   *
+   * @param counter The name of the counter
+   * @param delta The amount to add
+   */
+  public void count(String counter, long delta) {
+    if (enabled) {
+      counters.computeIfAbsent(counter, key -> new AtomicLong()).addAndGet(delta);
+    }
+  }
+
+  /**
+   * Writes the summary and the trace of the run.
+   *
+   * @param dir The directory to write the reports to
+   */
+  public void write(File dir) {
+    if (!enabled) {
+      return;
+    }
+
+    List<Event> recorded = new ArrayList<>(events);
+    Collections.sort(recorded, (e1, e2) -> Long.compare(e1.start, e2.start));
+
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("wallTimeMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    summary.put(
+        "peakHeapBytes",
+        heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum());
+    summary.put("phases", summarize(recorded));
+    summary.put(
+        "counters",
+        new TreeMap<>(
+            counters
+                .entrySet()
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get()))));
+
+    Map<String, Object> trace = new LinkedHashMap<>();
+    trace.put(
+        "traceEvents", recorded.stream().map(this::toTraceEvent).collect(Collectors.toList()));
+    trace.put("displayTimeUnit", "ms");
+
+    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    try {
+      Files.createDirectories(dir.toPath());
+      writeJson(gson, summary, dir.toPath().resolve(SUMMARY_FILE));
+      writeJson(new Gson(), trace, dir.toPath().resolve(TRACE_FILE));
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't write okbuck profile to " + dir, e);
+    }
+
+    LOG.info("Okbuck profile written to {}", dir);
+  }
+
+  private static List<MemoryPoolMXBean> heapPools() {
+    return ManagementFactory.getMemoryPoolMXBeans()
+        .stream()
+        .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+        .collect(Collectors.toList());
+  }
+
+  private static Map<String, PhaseStats> summarize(List<Event> recorded) {
+    Map<String, PhaseStats> phases = new LinkedHashMap<>();
+    recorded.forEach(
+        event -> {
+          PhaseStats stats = phases.computeIfAbsent(event.name, name -> new PhaseStats());
+          stats.count++;
+          stats.totalNanos += event.duration;
+          stats.maxNanos = Math.max(stats.maxNanos, event.duration);
+        });
+    // Converted once all events are summed, so short phases that run often still add up
+    phases
+        .values()
+        .forEach(
+            stats -> {
+              stats.totalMs = TimeUnit.NANOSECONDS.toMillis(stats.totalNanos);
+              stats.maxMs = TimeUnit.NANOSECONDS.toMillis(stats.maxNanos);
+            });
+    return phases;
+  }
+
+  private Map<String, Object> toTraceEvent(Event event) {
+    Map<String, Object> traceEvent = new LinkedHashMap<>();
+    traceEvent.put("name", event.name);
+    traceEvent.put("cat", "okbuck");
+    traceEvent.put("ph", "X");
+    traceEvent.put("ts", TimeUnit.NANOSECONDS.toMicros(event.start - startNanos));
+    traceEvent.put("dur", TimeUnit.NANOSECONDS.toMicros(event.duration));
+    traceEvent.put("pid", 1);
+    traceEvent.put("tid", event.threadId);
+
+    Map<String, String> args = new LinkedHashMap<>();
+    args.put("thread", event.threadName);
+    if (event.detail != null) {
+      args.put("detail", event.detail);
+    }
+    traceEvent.put("args", args);
+    return traceEvent;
+  }
+
+  private static void writeJson(Gson gson, Object value, Path file) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(file, UTF_8)) {
+      gson.toJson(value, writer);
+    }
+  }
+
+  /** A running phase, ended by closing it. */
+  public interface Phase extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+
+  /** Aggregated timings of all runs of a phase. */
+  private static final class PhaseStats {
+    private long count;
+    private long totalMs;
+    private long maxMs;
+    private transient long totalNanos;
+    private transient long maxNanos;
+  }
+
+  private static final class Event {
+    private final String name;
+    @Nullable private final String detail;
+    private final String threadName;
+    private final long threadId;
+    private final long start;
+    private final long duration;
+
+    private Event(
+        String name,
+        @Nullable String detail,
+        String threadName,
+        long threadId,
+        long start,
+        long duration) {
+      this.name = name;
+      this.detail = detail;
+      this.threadName = threadName;
+      this.threadId = threadId;
+      this.start = start;
+      this.duration = duration;
+    }
+  }
+}
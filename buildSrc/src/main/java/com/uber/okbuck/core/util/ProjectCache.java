@@ -3,6 +3,7 @@ package com.uber.okbuck.core.util;
 import com.uber.okbuck.core.model.base.Scope;
 import com.uber.okbuck.core.model.base.TargetCache;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import org.gradle.api.Project;
 
@@ -13,10 +14,12 @@ public class ProjectCache {
 
   private ProjectCache() {}
 
-  public static Map<String, Scope> getScopeCache(Project project) {
+  /** Returns the scopes of the project by configuration, completed once a scope is built. */
+  public static Map<String, CompletableFuture<Scope>> getScopeCache(Project project) {
     String scopeCacheKey = getCacheKey(project, SCOPE_CACHE);
 
-    Map<String, Scope> scopeCache = (Map<String, Scope>) project.property(scopeCacheKey);
+    Map<String, CompletableFuture<Scope>> scopeCache =
+        (Map<String, CompletableFuture<Scope>>) project.property(scopeCacheKey);
     if (scopeCache == null) {
       throw new IllegalStateException(
           "Scope cache external property '" + scopeCacheKey + "' is not set.");
@@ -0,0 +1,705 @@
+package com.uber.okbuck.core.util;
+
+import static com.uber.okbuck.core.util.FingerprintUtil.putFile;
+import static com.uber.okbuck.core.util.FingerprintUtil.putString;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.uber.okbuck.OkBuckGradlePlugin;
+import com.uber.okbuck.core.dependency.DependencyFactory;
+import com.uber.okbuck.core.dependency.OExternalDependency;
+import com.uber.okbuck.core.manager.BuckFileManager;
+import com.uber.okbuck.core.manager.DependencyManager;
+import com.uber.okbuck.extension.ExternalDependenciesExtension;
+import com.uber.okbuck.extension.JetifierExtension;
+import com.uber.okbuck.extension.OkBuckExtension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.DependencyArtifact;
+import org.gradle.api.artifacts.ExcludeRule;
+import org.gradle.api.artifacts.ExternalDependency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a fingerprint of the inputs that go into generating a project's buck file, persisted
+ * across runs under {@code .okbuck/state}. A project whose fingerprint did not change since the
+ * last successful run can skip target creation and buck file writing.
+ *
+ * <p>Generating a project also has side effects on the root project: it registers external
+ * dependencies, annotation processors and exported files. These are recorded along with the
+ * fingerprint and replayed for projects that are skipped.
+ *
+ * <p>Projects which declare a dynamic, changing or snapshot version, or depend on a project that
+ * does, are never recorded or restored. Their dependencies may resolve differently although none
+ * of the fingerprinted inputs changed.
+ *
+ * <p>The fingerprint of every project is compared, since the changes reported by the buck wrapper
+ * only cover watched paths. Projects which none of those changes affect reuse the hash of their
+ * source roots from the last run instead of listing them again.
+ */
+public final class ProjectFingerprintCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProjectFingerprintCache.class);
+
+  private static final String SOURCE_DIR = "src";
+  private static final String ANDROID_MANIFEST = "AndroidManifest.xml";
+
+  // Bumped whenever the persisted state changes, states of other versions are never restored
+  private static final int STATE_VERSION = 3;
+
+  private final Project rootProject;
+  private final OkBuckExtension okBuckExtension;
+  private final BuckFileManager buckFileManager;
+  private final File stateFile;
+  private final AffectedProjects affectedProjects;
+  private final boolean enabled;
+
+  private final Map<String, ProjectState> lastStates;
+  private final Map<String, ProjectState> currentStates = new ConcurrentHashMap<>();
+  private final Queue<CompletableFuture<Void>> pendingBuckFileHashes =
+      new ConcurrentLinkedQueue<>();
+
+  private final Map<String, String> fingerprints = new HashMap<>();
+  private final Map<String, LocalFingerprint> localFingerprints = new HashMap<>();
+  private final Set<String> unstableProjects = new HashSet<>();
+  private final Map<String, String> sourceRootsHashes = new HashMap<>();
+  private final String rootFingerprint;
+
+  public ProjectFingerprintCache(
+      Project rootProject,
+      OkBuckExtension okBuckExtension,
+      BuckFileManager buckFileManager,
+      String stateFile,
+      AffectedProjects affectedProjects) {
+    this.rootProject = rootProject;
+    this.okBuckExtension = okBuckExtension;
+    this.buckFileManager = buckFileManager;
+    this.stateFile = rootProject.file(stateFile);
+    this.affectedProjects = affectedProjects;
+    this.enabled =
+        okBuckExtension.getExperimentalExtension().incrementalGeneration
+            && !okBuckExtension.getExternalDependenciesExtension().exportedDepsEnabled();
+
+    if (enabled) {
+      this.lastStates = readStates(this.stateFile);
+      this.rootFingerprint = FingerprintUtil.rootFingerprint(rootProject, okBuckExtension);
+    } else {
+      this.lastStates = new HashMap<>();
+      this.rootFingerprint = "";
+    }
+  }
+
+  /**
+   * Restores the generated state of a project if its inputs did not change since the last run.
+   *
+   * @param project The project to restore
+   * @return Whether the project was restored and does not need to be generated again.
+   */
+  public boolean restore(Project project) {
+    if (!enabled) {
+      return false;
+    }
+
+    if (!isStable(project)) {
+      LOG.info("Generating {} since it depends on dynamic, changing or snapshot versions", project);
+      return false;
+    }
+
+    ProjectState lastState = lastStates.get(project.getPath());
+    if (lastState == null
+        || lastState.version != STATE_VERSION
+        || !lastState.fingerprint.equals(fingerprint(project))) {
+      return false;
+    }
+
+    boolean dependenciesPresent =
+        lastState
+            .dependencies
+            .stream()
+            .allMatch(
+                dependency ->
+                    new File(dependency.file).isFile()
+                        && (dependency.sourceFile == null
+                            || new File(dependency.sourceFile).isFile()));
+    if (!dependenciesPresent) {
+      return false;
+    }
+
+    File buckFile = project.file(okBuckExtension.buildFileName);
+    if (!restoreBuckFile(buckFile, lastState.buckFileLength, lastState.buckFileHash)) {
+      return false;
+    }
+
+    DependencyFactory factory = ProjectUtil.getDependencyFactory(project);
+    DependencyManager dependencyManager = ProjectUtil.getDependencyManager(project);
+    ExternalDependenciesExtension externalDependenciesExtension =
+        okBuckExtension.getExternalDependenciesExtension();
+    JetifierExtension jetifierExtension = okBuckExtension.getJetifierExtension();
+
+    lastState.dependencies.forEach(
+        state -> {
+          OExternalDependency dependency =
+              factory.from(
+                  state.group,
+                  state.name,
+                  state.version,
+                  new File(state.file),
+                  state.sourceFile != null ? new File(state.sourceFile) : null,
+                  externalDependenciesExtension,
+                  jetifierExtension);
+          dependency.updateFirstLevel(state.firstLevel);
+          dependencyManager.addDependency(dependency, state.skipPrebuilt);
+        });
+    dependencyManager.addRawDependencies(
+        lastState
+            .rawDependencies
+            .stream()
+            .map(state -> state.toDependency(project))
+            .collect(Collectors.toSet()));
+
+    ProjectUtil.getAnnotationProcessorCache(project)
+        .restoreProcessorScopes(project, lastState.processorConfigurations);
+
+    OkBuckGradlePlugin plugin = ProjectUtil.getPlugin(project);
+    lastState.exportedPaths.forEach(path -> plugin.addExportedPath(project, path));
+
+    currentStates.put(project.getPath(), lastState);
+    LOG.info("Skipping generation of {} since its inputs did not change", project);
+    return true;
+  }
+
+  /**
+   * Records the generated state of a project. Must be called right after the project's buck file
+   * is generated and before its scope cache is reset.
+   *
+   * @param project The generated project
+   */
+  public void record(Project project) {
+    if (!enabled || !isStable(project)) {
+      return;
+    }
+
+    ProjectState state = new ProjectState();
+    state.version = STATE_VERSION;
+    state.fingerprint = fingerprint(project);
+    state.sourceRootsHash = sourceRootsHash(project);
+
+    // Hashed once rendered, which may happen on the buck file manager's render pool
+    File buckFile = project.file(okBuckExtension.buildFileName);
+    pendingBuckFileHashes.add(
+        buckFileManager
+            .getStagedBuckFile(buckFile)
+            .thenAccept(
+                generated -> {
+                  state.buckFileLength = generated.length;
+                  state.buckFileHash = Hashing.sha256().hashBytes(generated).toString();
+                }));
+
+    // A dependency skips prebuilt rules only if it does so in all scopes, same as when it is
+    // registered with the dependency manager
+    Map<OExternalDependency, Boolean> skipPrebuilt = new LinkedHashMap<>();
+    Set<ExternalDependency> rawDependencies = new HashSet<>();
+    ProjectCache.getScopeCache(project)
+        .values()
+        .stream()
+        .map(CompletableFuture::join)
+        .forEach(
+            scope -> {
+              scope
+                  .getExternalDeps(false)
+                  .forEach(
+                      dependency ->
+                          skipPrebuilt.merge(
+                              dependency, scope.isSkipPrebuilt(), Boolean::logicalAnd));
+              rawDependencies.addAll(scope.getRawDependencies());
+            });
+    state.dependencies =
+        skipPrebuilt
+            .entrySet()
+            .stream()
+            .map(entry -> DependencyState.from(entry.getKey(), entry.getValue()))
+            .sorted(Comparator.comparing(dependency -> dependency.file))
+            .collect(Collectors.toList());
+    state.rawDependencies =
+        rawDependencies
+            .stream()
+            .map(RawDependencyState::from)
+            .distinct()
+            .sorted(Comparator.comparing(RawDependencyState::toString))
+            .collect(Collectors.toList());
+    state.processorConfigurations =
+        new TreeSet<>(
+            ProjectUtil.getAnnotationProcessorCache(project).getProcessorConfigurations(project));
+    state.exportedPaths = new TreeSet<>(ProjectUtil.getPlugin(project).getExportedPaths(project));
+
+    currentStates.put(project.getPath(), state);
+  }
+
+  /** Persists the state of all projects generated or restored in this run. */
+  public void persist() {
+    if (!enabled) {
+      FileUtil.deleteQuietly(stateFile.toPath());
+      return;
+    }
+
+    CompletableFuture.allOf(pendingBuckFileHashes.toArray(new CompletableFuture<?>[0])).join();
+    pendingBuckFileHashes.clear();
+
+    try {
+      Files.createParentDirs(stateFile);
+      try (Writer writer = java.nio.file.Files.newBufferedWriter(stateFile.toPath(), UTF_8)) {
+        new GsonBuilder().create().toJson(new TreeMap<>(currentStates), writer);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't persist project fingerprints", e);
+    }
+  }
+
+  /**
+   * Stages what was generated for the project's buck file last time. Exported file rules are
+   * appended to project buck files after generation, hence only the generated prefix is staged for
+   * them to be added again.
+   */
+  private boolean restoreBuckFile(File buckFile, int generatedLength, String generatedHash) {
+    if (generatedLength == 0) {
+      return true;
+    }
+
+    if (!buckFile.isFile() || buckFile.length() < generatedLength) {
+      return false;
+    }
+
+    byte[] generated;
+    try (InputStream is = new FileInputStream(buckFile)) {
+      generated = ByteStreams.toByteArray(ByteStreams.limit(is, generatedLength));
+    } catch (IOException e) {
+      return false;
+    }
+    if (!Hashing.sha256().hashBytes(generated).toString().equals(generatedHash)) {
+      return false;
+    }
+
+    buckFileManager.stageBuckFile(buckFile, generated);
+    return true;
+  }
+
+  /**
+   * Fingerprints a project along with all projects it transitively depends on. The fingerprint
+   * only depends on the set of reachable projects, so projects depending on each other in a cycle
+   * get the same fingerprint whichever of them is computed first.
+   */
+  private synchronized String fingerprint(Project project) {
+    String path = project.getPath();
+    String cached = fingerprints.get(path);
+    if (cached != null) {
+      return cached;
+    }
+
+    Map<String, LocalFingerprint> reachable = new TreeMap<>();
+    Deque<Project> queue = new ArrayDeque<>();
+    queue.add(project);
+    while (!queue.isEmpty()) {
+      Project current = queue.remove();
+      if (!reachable.containsKey(current.getPath())) {
+        LocalFingerprint local = localFingerprint(current);
+        reachable.put(current.getPath(), local);
+        queue.addAll(local.projectDependencies);
+      }
+    }
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    reachable.forEach(
+        (reachablePath, local) -> {
+          putString(hasher, reachablePath);
+          putString(hasher, local.hash);
+        });
+    String fingerprint = hasher.hash().toString();
+    fingerprints.put(path, fingerprint);
+    if (!reachable.values().stream().allMatch(local -> local.stable)) {
+      unstableProjects.add(path);
+    }
+    return fingerprint;
+  }
+
+  /** Whether neither the project nor any project it depends on declares an unstable version. */
+  private synchronized boolean isStable(Project project) {
+    fingerprint(project);
+    return !unstableProjects.contains(project.getPath());
+  }
+
+  /** Fingerprints the inputs of the project itself, project dependencies are only named. */
+  private LocalFingerprint localFingerprint(Project project) {
+    LocalFingerprint cached = localFingerprints.get(project.getPath());
+    if (cached != null) {
+      return cached;
+    }
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    putString(hasher, rootFingerprint);
+    putString(hasher, project.getPath());
+    putString(hasher, ProjectUtil.getType(project).name());
+
+    project
+        .getPlugins()
+        .stream()
+        .map(plugin -> plugin.getClass().getName())
+        .sorted()
+        .forEach(plugin -> putString(hasher, plugin));
+
+    putFile(hasher, project.getBuildFile());
+    FingerprintUtil.putAppliedScripts(hasher, project);
+    putFile(hasher, project.file("gradle.properties"));
+    putString(
+        hasher,
+        String.valueOf(
+            project.file(okBuckExtension.getVisibilityExtension().visibilityFileName).isFile()));
+
+    FingerprintUtil.repositories(project).forEach(repository -> putString(hasher, repository));
+
+    Set<Project> projectDependencies = new HashSet<>();
+    project
+        .getConfigurations()
+        .stream()
+        .sorted(Comparator.comparing(Configuration::getName))
+        .forEach(
+            configuration -> {
+              putString(hasher, configuration.getName());
+              putString(hasher, String.valueOf(configuration.isCanBeResolved()));
+              configuration
+                  .getExtendsFrom()
+                  .stream()
+                  .map(Configuration::getName)
+                  .sorted()
+                  .forEach(name -> putString(hasher, name));
+              configuration
+                  .getDependencies()
+                  .stream()
+                  .map(
+                      dependency ->
+                          FingerprintUtil.describe(
+                              dependency,
+                              dependencyProject -> {
+                                projectDependencies.add(dependencyProject);
+                                return "";
+                              }))
+                  .sorted()
+                  .forEach(dependency -> putString(hasher, dependency));
+              configuration
+                  .getDependencyConstraints()
+                  .stream()
+                  .map(
+                      constraint ->
+                          constraint.getGroup()
+                              + ":"
+                              + constraint.getName()
+                              + ":"
+                              + constraint.getVersion())
+                  .sorted()
+                  .forEach(constraint -> putString(hasher, constraint));
+            });
+
+    putString(hasher, sourceRootsHash(project));
+
+    boolean stable =
+        project
+            .getConfigurations()
+            .stream()
+            .allMatch(
+                configuration ->
+                    configuration
+                            .getDependencies()
+                            .withType(ExternalDependency.class)
+                            .stream()
+                            .allMatch(FingerprintUtil::isStable)
+                        && configuration
+                            .getDependencyConstraints()
+                            .stream()
+                            .allMatch(
+                                constraint ->
+                                    FingerprintUtil.isStableVersion(constraint.getVersion())));
+
+    LocalFingerprint local =
+        new LocalFingerprint(hasher.hash().toString(), projectDependencies, stable);
+    localFingerprints.put(project.getPath(), local);
+    return local;
+  }
+
+  /**
+   * Hashes the source set roots of the project. Sources are referenced via globs in the generated
+   * rules, so only the roots which have any files in them and the manifests matter. Walking the
+   * roots is expensive, so the hash of the last run is reused if no reported change affects them.
+   */
+  private synchronized String sourceRootsHash(Project project) {
+    String path = project.getPath();
+    String cached = sourceRootsHashes.get(path);
+    if (cached != null) {
+      return cached;
+    }
+
+    ProjectState lastState = lastStates.get(path);
+    String hash;
+    if (!affectedProjects.isAffected(project)
+        && lastState != null
+        && lastState.version == STATE_VERSION
+        && !lastState.sourceRootsHash.isEmpty()) {
+      hash = lastState.sourceRootsHash;
+    } else {
+      Hasher hasher = Hashing.sha256().newHasher();
+      putSourceRoots(hasher, project);
+      hash = hasher.hash().toString();
+    }
+    sourceRootsHashes.put(path, hash);
+    return hash;
+  }
+
+  private static void putSourceRoots(Hasher hasher, Project project) {
+    File[] sourceSets = project.file(SOURCE_DIR).listFiles(File::isDirectory);
+    if (sourceSets == null) {
+      return;
+    }
+
+    List<File> roots = new ArrayList<>();
+    for (File sourceSet : sourceSets) {
+      File[] sourceSetRoots = sourceSet.listFiles();
+      if (sourceSetRoots == null) {
+        continue;
+      }
+      for (File root : sourceSetRoots) {
+        if (root.isDirectory()) {
+          roots.add(root);
+        } else if (root.getName().equals(ANDROID_MANIFEST)) {
+          putString(hasher, FileUtil.getRelativePath(project.getProjectDir(), root));
+          putFile(hasher, root);
+        }
+      }
+    }
+
+    FileUtil.available(project, roots)
+        .stream()
+        .sorted()
+        .forEach(root -> putString(hasher, root));
+  }
+
+  private static Map<String, ProjectState> readStates(File stateFile) {
+    if (!stateFile.isFile()) {
+      return new HashMap<>();
+    }
+
+    try (Reader reader = java.nio.file.Files.newBufferedReader(stateFile.toPath(), UTF_8)) {
+      Map<String, ProjectState> states =
+          new Gson().fromJson(reader, new TypeToken<HashMap<String, ProjectState>>() {}.getType());
+      return states != null ? states : new HashMap<>();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable project fingerprints {}", stateFile, e);
+      return new HashMap<>();
+    }
+  }
+
+  /** Generated state of a project as persisted in the fingerprints file. */
+  private static final class ProjectState {
+    int version;
+    String fingerprint = "";
+    String sourceRootsHash = "";
+    int buckFileLength;
+    String buckFileHash = "";
+    List<DependencyState> dependencies = ImmutableList.of();
+    List<RawDependencyState> rawDependencies = ImmutableList.of();
+    Set<String> processorConfigurations = new TreeSet<>();
+    Set<String> exportedPaths = new TreeSet<>();
+  }
+
+  /** An external dependency registered while generating a project. */
+  private static final class DependencyState {
+    String group = "";
+    String name = "";
+    String version = "";
+    String file = "";
+    @Nullable String sourceFile;
+    boolean firstLevel;
+    boolean skipPrebuilt;
+
+    static DependencyState from(OExternalDependency dependency, boolean skipPrebuilt) {
+      DependencyState state = new DependencyState();
+      state.group = dependency.getGroup();
+      state.name = dependency.getName();
+      state.version = dependency.getVersion();
+      state.file = dependency.getRealDependencyFile().getAbsolutePath();
+      state.sourceFile =
+          dependency.getRealSourceFile().map(File::getAbsolutePath).orElse(null);
+      state.firstLevel = dependency.isFirstLevel();
+      state.skipPrebuilt = skipPrebuilt;
+      return state;
+    }
+  }
+
+  /** A raw dependency registered to resolve third party dependencies while generating a project. */
+  private static final class RawDependencyState {
+    String group = "";
+    String name = "";
+    String version = "";
+    boolean transitive = true;
+    List<ArtifactState> artifacts = ImmutableList.of();
+    List<ExcludeState> excludes = ImmutableList.of();
+
+    static RawDependencyState from(ExternalDependency dependency) {
+      RawDependencyState state = new RawDependencyState();
+      state.group = String.valueOf(dependency.getGroup());
+      state.name = dependency.getName();
+      state.version = String.valueOf(dependency.getVersion());
+      state.transitive = dependency.isTransitive();
+      state.artifacts =
+          dependency
+              .getArtifacts()
+              .stream()
+              .map(ArtifactState::from)
+              .sorted(Comparator.comparing(ArtifactState::toString))
+              .collect(Collectors.toList());
+      state.excludes =
+          dependency
+              .getExcludeRules()
+              .stream()
+              .map(ExcludeState::from)
+              .sorted(Comparator.comparing(ExcludeState::toString))
+              .collect(Collectors.toList());
+      return state;
+    }
+
+    ExternalDependency toDependency(Project project) {
+      ExternalDependency dependency =
+          (ExternalDependency)
+              project.getDependencies().create(group + ":" + name + ":" + version);
+      dependency.setTransitive(transitive);
+      artifacts.forEach(
+          artifact ->
+              dependency.artifact(
+                  dependencyArtifact -> {
+                    dependencyArtifact.setName(artifact.name);
+                    dependencyArtifact.setType(artifact.type);
+                    dependencyArtifact.setExtension(artifact.extension);
+                    dependencyArtifact.setClassifier(artifact.classifier);
+                  }));
+      excludes.forEach(exclude -> dependency.exclude(exclude.toMap()));
+      return dependency;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      return o instanceof RawDependencyState && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+      return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return group
+          + ":"
+          + name
+          + ":"
+          + version
+          + ":"
+          + transitive
+          + ":"
+          + artifacts
+          + ":"
+          + excludes;
+    }
+  }
+
+  private static final class ArtifactState {
+    String name = "";
+    String type = "";
+    @Nullable String extension;
+    @Nullable String classifier;
+
+    static ArtifactState from(DependencyArtifact artifact) {
+      ArtifactState state = new ArtifactState();
+      state.name = artifact.getName();
+      state.type = artifact.getType();
+      state.extension = artifact.getExtension();
+      state.classifier = artifact.getClassifier();
+      return state;
+    }
+
+    @Override
+    public String toString() {
+      return name + "@" + type + "@" + extension + "@" + classifier;
+    }
+  }
+
+  private static final class ExcludeState {
+    @Nullable String group;
+    @Nullable String module;
+
+    static ExcludeState from(ExcludeRule rule) {
+      ExcludeState state = new ExcludeState();
+      state.group = rule.getGroup();
+      state.module = rule.getModule();
+      return state;
+    }
+
+    Map<String, String> toMap() {
+      Map<String, String> map = new HashMap<>();
+      if (group != null) {
+        map.put(ExcludeRule.GROUP_KEY, group);
+      }
+      if (module != null) {
+        map.put(ExcludeRule.MODULE_KEY, module);
+      }
+      return map;
+    }
+
+    @Override
+    public String toString() {
+      return group + "@" + module;
+    }
+  }
+
+  /** Fingerprint of a project's own inputs along with the projects it depends on. */
+  private static final class LocalFingerprint {
+    private final String hash;
+    private final Set<Project> projectDependencies;
+    // Whether the project itself only declares stable versions
+    private final boolean stable;
+
+    private LocalFingerprint(String hash, Set<Project> projectDependencies, boolean stable) {
+      this.hash = hash;
+      this.projectDependencies = projectDependencies;
+      this.stable = stable;
+    }
+  }
+}
@@ -8,6 +8,7 @@ import com.android.build.gradle.LibraryPlugin;
 import com.google.common.collect.ImmutableList;
 import com.uber.okbuck.OkBuckGradlePlugin;
 import com.uber.okbuck.core.annotation.AnnotationProcessorCache;
+import com.uber.okbuck.core.dependency.AnnotationProcessorIndex;
 import com.uber.okbuck.core.dependency.DependencyCache;
 import com.uber.okbuck.core.dependency.DependencyFactory;
 import com.uber.okbuck.core.dependency.DependencyUtils;
@@ -79,6 +80,22 @@ public final class ProjectUtil {
     return getPlugin(project).annotationProcessorCache;
   }
 
+  public static OkBuckProfiler getProfiler(Project project) {
+    return getPlugin(project).profiler;
+  }
+
+  public static AnnotationProcessorIndex getAnnotationProcessorIndex(Project project) {
+    return getPlugin(project).annotationProcessorIndex;
+  }
+
+  public static GeneratedFiles getGeneratedFiles(Project project) {
+    return getPlugin(project).generatedFiles;
+  }
+
+  public static ResolvedGraphCache getResolvedGraphCache(Project project) {
+    return getPlugin(project).resolvedGraphCache;
+  }
+
   public static DependencyFactory getDependencyFactory(Project project) {
     return getPlugin(project).dependencyFactory;
   }
@@ -0,0 +1,425 @@
+package com.uber.okbuck.core.util;
+
+import static com.uber.okbuck.core.util.FingerprintUtil.putFile;
+import static com.uber.okbuck.core.util.FingerprintUtil.putString;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.uber.okbuck.core.dependency.OExternalDependency;
+import com.uber.okbuck.extension.OkBuckExtension;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.DependencySet;
+import org.gradle.api.artifacts.ExternalDependency;
+import org.gradle.api.artifacts.ProjectDependency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the resolved dependency graph of configurations, persisted across runs under {@code
+ * .okbuck/state}. A configuration whose declared dependencies, constraints and repositories did not
+ * change since the last run is rebuilt from the cache without going through gradle's resolver.
+ *
+ * <p>Configurations depending on dynamic or changing versions are never cached.
+ */
+public final class ResolvedGraphCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResolvedGraphCache.class);
+
+  private static final String GRADLE_DIR = "gradle";
+  private static final String[] SCRIPT_EXTENSIONS = {".gradle", ".gradle.kts"};
+  private static final String NOT_CACHEABLE = "";
+
+  private final Project rootProject;
+  private final File stateFile;
+  private final boolean enabled;
+
+  private final Map<String, CachedGraph> lastGraphs;
+  private final Map<String, CachedGraph> currentGraphs = new ConcurrentHashMap<>();
+  private final Map<String, String> keys = new ConcurrentHashMap<>();
+
+  private final Map<String, String> projectFingerprints = new HashMap<>();
+  private final Map<String, Boolean> projectStable = new HashMap<>();
+  private final Set<String> inProgress = new HashSet<>();
+  private final String rootFingerprint;
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  public ResolvedGraphCache(
+      Project rootProject, OkBuckExtension okBuckExtension, String stateFile) {
+    this.rootProject = rootProject;
+    this.stateFile = rootProject.file(stateFile);
+    this.enabled =
+        okBuckExtension.getExperimentalExtension().resolvedGraphCache
+            && !okBuckExtension.getExternalDependenciesExtension().versionedExportedDepsEnabled();
+
+    if (enabled) {
+      File file = this.stateFile;
+      this.lastGraphs = DaemonState.read(file, () -> readGraphs(file));
+      this.rootFingerprint = computeRootFingerprint(okBuckExtension);
+    } else {
+      this.lastGraphs = new HashMap<>();
+      this.rootFingerprint = "";
+    }
+  }
+
+  /**
+   * Returns the graph resolved for the configuration in the last run, if its inputs did not change
+   * and all the artifacts and projects it references are still present.
+   *
+   * @param project The project owning the configuration
+   * @param configuration The configuration to look up
+   * @return The cached graph or null if the configuration has to be resolved
+   */
+  @Nullable
+  public ResolvedGraph get(Project project, Configuration configuration) {
+    if (!enabled) {
+      return null;
+    }
+
+    String id = id(project, configuration);
+    String key = key(project, configuration);
+    CachedGraph cached = lastGraphs.get(id);
+    if (key.equals(NOT_CACHEABLE) || cached == null || !cached.key.equals(key)) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    ResolvedGraph graph = cached.graph;
+    boolean present =
+        graph.externals.stream().allMatch(ResolvedExternal::isPresent)
+            && graph
+                .targets
+                .stream()
+                .allMatch(target -> rootProject.findProject(target.project) != null);
+    if (!present) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    currentGraphs.put(id, cached);
+    hits.incrementAndGet();
+    return graph;
+  }
+
+  /**
+   * Records the graph resolved for the configuration.
+   *
+   * @param project The project owning the configuration
+   * @param configuration The resolved configuration
+   * @param graph The resolved graph
+   */
+  public void put(Project project, Configuration configuration, ResolvedGraph graph) {
+    if (!enabled) {
+      return;
+    }
+
+    String key = key(project, configuration);
+    if (!key.equals(NOT_CACHEABLE)) {
+      CachedGraph cached = new CachedGraph();
+      cached.key = key;
+      cached.graph = graph;
+      currentGraphs.put(id(project, configuration), cached);
+    }
+  }
+
+  /** Persists the graphs of all configurations resolved or restored in this run. */
+  public void persist() {
+    if (!enabled) {
+      FileUtil.deleteQuietly(stateFile.toPath());
+      return;
+    }
+
+    LOG.info("Resolved graph cache: {} hits, {} misses", hits.get(), misses.get());
+    try {
+      Files.createDirectories(stateFile.toPath().toAbsolutePath().getParent());
+      Map<String, CachedGraph> graphs = new TreeMap<>(currentGraphs);
+      try (Writer writer = Files.newBufferedWriter(stateFile.toPath(), UTF_8)) {
+        new Gson().toJson(graphs, writer);
+      }
+      DaemonState.written(stateFile, graphs);
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't persist resolved graphs", e);
+    }
+  }
+
+  private static String id(Project project, Configuration configuration) {
+    return project.getPath() + "@" + configuration.getName();
+  }
+
+  private String key(Project project, Configuration configuration) {
+    return keys.computeIfAbsent(
+        id(project, configuration),
+        id -> {
+          DependencySet dependencies = configuration.getAllDependencies();
+          if (!isStable(dependencies, new HashSet<>())) {
+            return NOT_CACHEABLE;
+          }
+
+          Hasher hasher = Hashing.sha256().newHasher();
+          putString(hasher, rootFingerprint);
+          putString(hasher, id);
+          putFile(hasher, project.getBuildFile());
+          putFile(hasher, project.file("gradle.properties"));
+          FingerprintUtil.repositories(project)
+              .forEach(repository -> putString(hasher, repository));
+          putDependencies(hasher, dependencies);
+          configuration
+              .getAllDependencyConstraints()
+              .stream()
+              .map(
+                  constraint ->
+                      constraint.getGroup()
+                          + ":"
+                          + constraint.getName()
+                          + ":"
+                          + constraint.getVersion())
+              .sorted()
+              .forEach(constraint -> putString(hasher, constraint));
+          return hasher.hash().toString();
+        });
+  }
+
+  private void putDependencies(Hasher hasher, Set<Dependency> dependencies) {
+    dependencies
+        .stream()
+        .map(dependency -> FingerprintUtil.describe(dependency, this::projectFingerprint))
+        .sorted()
+        .forEach(dependency -> putString(hasher, dependency));
+  }
+
+  /**
+   * Fingerprints what a project contributes to the resolution of configurations depending on it.
+   */
+  private synchronized String projectFingerprint(Project project) {
+    String path = project.getPath();
+    String cached = projectFingerprints.get(path);
+    if (cached != null) {
+      return cached;
+    }
+
+    // Projects can depend on each other through different configurations.
+    if (!inProgress.add(path)) {
+      return path;
+    }
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    putString(hasher, path);
+    putFile(hasher, project.getBuildFile());
+    putFile(hasher, project.file("gradle.properties"));
+    FingerprintUtil.repositories(project).forEach(repository -> putString(hasher, repository));
+    project
+        .getConfigurations()
+        .stream()
+        .sorted(Comparator.comparing(Configuration::getName))
+        .forEach(
+            configuration -> {
+              putString(hasher, configuration.getName());
+              putDependencies(hasher, configuration.getDependencies());
+            });
+
+    String fingerprint = hasher.hash().toString();
+    inProgress.remove(path);
+    projectFingerprints.put(path, fingerprint);
+    return fingerprint;
+  }
+
+  /** Whether none of the dependencies, including those of depended on projects, can change. */
+  private synchronized boolean isStable(Set<Dependency> dependencies, Set<String> visited) {
+    for (Dependency dependency : dependencies) {
+      if (dependency instanceof ExternalDependency
+          && !FingerprintUtil.isStable((ExternalDependency) dependency)) {
+        return false;
+      }
+
+      if (dependency instanceof ProjectDependency) {
+        Project dependencyProject = ((ProjectDependency) dependency).getDependencyProject();
+        String path = dependencyProject.getPath();
+        Boolean stable = projectStable.get(path);
+        if (stable != null) {
+          if (!stable) {
+            return false;
+          }
+        } else if (visited.add(path)) {
+          boolean projectDependenciesStable =
+              dependencyProject
+                  .getConfigurations()
+                  .stream()
+                  .allMatch(configuration -> isStable(configuration.getDependencies(), visited));
+          if (!projectDependenciesStable) {
+            projectStable.put(path, false);
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Fingerprints the inputs shared by all configurations. Build scripts applied from the root
+   * project can configure resolution of any project, hence they are included as well.
+   */
+  private String computeRootFingerprint(OkBuckExtension okBuckExtension) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    putString(hasher, FingerprintUtil.rootFingerprint(rootProject, okBuckExtension));
+
+    List<File> scripts = new ArrayList<>();
+    for (File dir : new File[] {rootProject.getProjectDir(), rootProject.file(GRADLE_DIR)}) {
+      File[] files =
+          dir.listFiles(
+              file ->
+                  file.isFile()
+                      && Arrays.stream(SCRIPT_EXTENSIONS)
+                          .anyMatch(extension -> file.getName().endsWith(extension)));
+      if (files != null) {
+        scripts.addAll(Arrays.asList(files));
+      }
+    }
+    scripts
+        .stream()
+        .sorted()
+        .forEach(
+            script -> {
+              putString(hasher, FileUtil.getRelativePath(rootProject.getProjectDir(), script));
+              putFile(hasher, script);
+            });
+
+    return hasher.hash().toString();
+  }
+
+  private static Map<String, CachedGraph> readGraphs(File stateFile) {
+    if (!stateFile.isFile()) {
+      return new HashMap<>();
+    }
+
+    try (Reader reader = Files.newBufferedReader(stateFile.toPath(), UTF_8)) {
+      Map<String, CachedGraph> graphs =
+          new Gson().fromJson(reader, new TypeToken<HashMap<String, CachedGraph>>() {}.getType());
+      return graphs != null ? graphs : new HashMap<>();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring unreadable resolved graphs {}", stateFile, e);
+      return new HashMap<>();
+    }
+  }
+
+  /** A resolved graph along with the key of the inputs it was resolved from. */
+  private static final class CachedGraph {
+    String key = "";
+    ResolvedGraph graph = new ResolvedGraph();
+  }
+
+  /** The project and external dependencies a configuration resolved to, in resolution order. */
+  public static final class ResolvedGraph {
+    private final List<ResolvedTarget> targets = new ArrayList<>();
+    private final List<ResolvedExternal> externals = new ArrayList<>();
+
+    public void addTarget(String project, @Nullable String variant, boolean firstLevel) {
+      ResolvedTarget target = new ResolvedTarget();
+      target.project = project;
+      target.variant = variant;
+      target.firstLevel = firstLevel;
+      targets.add(target);
+    }
+
+    public void addExternal(OExternalDependency dependency, boolean firstLevel) {
+      ResolvedExternal external = new ResolvedExternal();
+      external.group = dependency.getGroup();
+      external.name = dependency.getName();
+      external.version = dependency.getVersion();
+      external.file = dependency.getRealDependencyFile().getAbsolutePath();
+      external.sourceFile = dependency.getRealSourceFile().map(File::getAbsolutePath).orElse(null);
+      external.firstLevel = firstLevel;
+      externals.add(external);
+    }
+
+    public List<ResolvedTarget> getTargets() {
+      return targets;
+    }
+
+    public List<ResolvedExternal> getExternals() {
+      return externals;
+    }
+  }
+
+  /** A project dependency of a resolved configuration. */
+  public static final class ResolvedTarget {
+    private String project = "";
+    @Nullable private String variant;
+    private boolean firstLevel;
+
+    public String getProject() {
+      return project;
+    }
+
+    @Nullable
+    public String getVariant() {
+      return variant;
+    }
+
+    public boolean isFirstLevel() {
+      return firstLevel;
+    }
+  }
+
+  /** An external dependency of a resolved configuration. */
+  public static final class ResolvedExternal {
+    private String group = "";
+    private String name = "";
+    private String version = "";
+    private String file = "";
+    @Nullable private String sourceFile;
+    private boolean firstLevel;
+
+    public String getGroup() {
+      return group;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getVersion() {
+      return version;
+    }
+
+    public File getFile() {
+      return new File(file);
+    }
+
+    @Nullable
+    public File getSourceFile() {
+      return sourceFile != null ? new File(sourceFile) : null;
+    }
+
+    public boolean isFirstLevel() {
+      return firstLevel;
+    }
+
+    private boolean isPresent() {
+      return new File(file).isFile() && (sourceFile == null || new File(sourceFile).isFile());
+    }
+  }
+}
@@ -3,4 +3,36 @@ package com.uber.okbuck.extension;
 import com.uber.okbuck.core.annotation.Experimental;
 
 @Experimental
-public class ExperimentalExtension {}
+public class ExperimentalExtension {
+
+  /**
+   * Skip target creation and buck file generation for projects whose inputs did not change since
+   * the last successful okbuck run. Scripts applied with arguments okbuck can't follow make all
+   * gradle scripts of the build inputs of every project. Projects declaring dynamic, changing or
+   * snapshot versions are always generated. Not supported when exported deps are enabled.
+   */
+  public boolean incrementalGeneration = false;
+
+  /**
+   * Reuse the resolved dependencies of configurations whose declared dependencies did not change
+   * since the last okbuck run instead of resolving them again. Not supported when versioned
+   * exported deps are enabled.
+   */
+  public boolean resolvedGraphCache = false;
+
+  /**
+   * Render and write the buck files of all projects in parallel on a dedicated pool. Targets are
+   * still created by each project's task, which holds gradle's lock of the project.
+   */
+  public boolean parallelGeneration = false;
+
+  /** Number of threads used for parallel generation. Defaults to the number of processors. */
+  public int generationThreads = 0;
+
+  /**
+   * Resolve the annotation processor dependencies of all projects in parallel once setup is done,
+   * instead of one at a time while targets are created. Uses the resolution threads of the external
+   * dependencies extension.
+   */
+  public boolean prepareProcessorScopes = false;
+}
@@ -66,6 +66,31 @@ public class ExternalDependenciesExtension {
   /** Set the path to the sha256sum caches of external dependency artifacts */
   @Input private String sha256Cache = OkBuckGradlePlugin.DEFAULT_OKBUCK_SHA256;
 
+  /**
+   * Number of threads used to compute the sha256sums of external dependency artifacts. Defaults to
+   * the number of processors.
+   */
+  @Input private int sha256Threads = 0;
+
+  /**
+   * Number of threads used to resolve raw dependencies when third party resolution only is enabled
+   * and to prepare annotation processor scopes. Defaults to the number of processors.
+   */
+  @Input private int resolutionThreads = 0;
+
+  /**
+   * Path to a checksum manifest shared across a team, consulted before computing the sha256sum of
+   * an artifact. Each line has a sha256sum followed by {@code group:name:version:fileName}.
+   */
+  @Nullable @Input private String sha256Manifest;
+
+  /**
+   * Number of packages to spread the external dependency rules across. By default every group gets
+   * its own package, which buck has to parse separately. Set to a small number to cut the packages
+   * buck parses on large projects.
+   */
+  @Input private int shards = 0;
+
   @Nullable private Set<VersionlessDependency> allowAllVersionsSet;
 
   public ExternalDependenciesExtension() {}
@@ -172,4 +197,25 @@ public class ExternalDependenciesExtension {
   public String getSha256Cache() {
     return sha256Cache;
   }
+
+  @Nullable
+  public String getSha256Manifest() {
+    return sha256Manifest;
+  }
+
+  public int getSha256Threads() {
+    return sha256Threads > 0 ? sha256Threads : Runtime.getRuntime().availableProcessors();
+  }
+
+  public boolean shardingEnabled() {
+    return shards > 0;
+  }
+
+  public int getShards() {
+    return shards;
+  }
+
+  public int getResolutionThreads() {
+    return resolutionThreads > 0 ? resolutionThreads : Runtime.getRuntime().availableProcessors();
+  }
 }
@@ -91,6 +91,12 @@ public class OkBuckExtension {
   /** Controls output of legacy annotation processor dependencies in generated build files */
   @Input public boolean legacyAnnotationProcessorSupport = true;
 
+  /**
+   * Whether to profile okbuck's generation. A summary of the time spent per phase along with
+   * counters, and a trace viewable in chrome://tracing, are written to build/okbuck-profile.
+   */
+  @Input public boolean profile = false;
+
   /** The prebuilt buck binary to use */
   @Input
   public String buckBinary = DEFAULT_BUCK_BINARY_REPO + ":" + DEFAULT_BUCK_BINARY_SHA + "@pex";
@@ -17,4 +17,10 @@ public class WrapperExtension {
 
   /** List of directories to ignore when querying for changes that should trigger okbuck runs */
   public Set<String> ignoredDirs = Sets.newHashSet(".okbuck");
+
+  /**
+   * Keep okbuck's persisted state in memory on the gradle daemon between runs, instead of reading
+   * it from disk on every run.
+   */
+  public boolean daemon = false;
 }
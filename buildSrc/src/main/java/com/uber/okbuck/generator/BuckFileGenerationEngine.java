@@ -0,0 +1,87 @@
+package com.uber.okbuck.generator;
+
+import com.uber.okbuck.core.manager.BuckFileManager;
+import com.uber.okbuck.core.util.OkBuckProfiler;
+import com.uber.okbuck.core.util.ProjectCache;
+import com.uber.okbuck.core.util.ProjectFingerprintCache;
+import com.uber.okbuck.core.util.ProjectUtil;
+import com.uber.okbuck.extension.ExperimentalExtension;
+import com.uber.okbuck.extension.OkBuckExtension;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates the buck files of projects. Each project is generated by its own okbuck task, on a
+ * thread holding gradle's lock of the project, since creating targets resolves the project's
+ * configurations and reads its model.
+ *
+ * <p>With parallel generation enabled, only the work which doesn't touch gradle's model is moved
+ * off those threads: the {@link BuckFileManager} renders and writes buck files on a bounded pool.
+ */
+public final class BuckFileGenerationEngine {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BuckFileGenerationEngine.class);
+
+  private final BuckFileManager buckFileManager;
+  private final OkBuckExtension okBuckExtension;
+  private final Map<String, Long> projectTimings = new ConcurrentHashMap<>();
+
+  public BuckFileGenerationEngine(
+      BuckFileManager buckFileManager, OkBuckExtension okBuckExtension) {
+    this.buckFileManager = buckFileManager;
+    this.okBuckExtension = okBuckExtension;
+  }
+
+  /**
+   * Generate the buck file of a single project. Must be called from the project's task.
+   *
+   * @param project The project to generate
+   */
+  public void generate(Project project) {
+    long start = System.nanoTime();
+
+    ProjectFingerprintCache fingerprintCache = ProjectUtil.getPlugin(project).fingerprintCache;
+    try (OkBuckProfiler.Phase ignored =
+        ProjectUtil.getProfiler(project).start("generate", project.getPath())) {
+      ProjectCache.initScopeCache(project);
+      if (!fingerprintCache.restore(project)) {
+        BuckFileGenerator.generate(project, buckFileManager, okBuckExtension);
+        fingerprintCache.record(project);
+      }
+      ProjectCache.resetScopeCache(project);
+    }
+
+    projectTimings.put(
+        project.getPath(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /** Reports the time taken by each generated project, slowest first. */
+  public void reportTimings() {
+    projectTimings
+        .entrySet()
+        .stream()
+        .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+        .forEach(entry -> LOG.info("Generated {} in {} ms", entry.getKey(), entry.getValue()));
+    projectTimings.clear();
+  }
+
+  /**
+   * Returns the number of threads buck files are rendered and written on.
+   *
+   * @param okBuckExtension The okbuck extension
+   * @return One unless parallel generation is enabled
+   */
+  public static int getRenderThreads(OkBuckExtension okBuckExtension) {
+    ExperimentalExtension experimentalExtension = okBuckExtension.getExperimentalExtension();
+    if (!experimentalExtension.parallelGeneration) {
+      return 1;
+    }
+    return experimentalExtension.generationThreads > 0
+        ? experimentalExtension.generationThreads
+        : Runtime.getRuntime().availableProcessors();
+  }
+}
@@ -68,7 +68,7 @@ public final class BuckFileGenerator {
     }
 
     File buckFile = project.file(okBuckExtension.buildFileName);
-    buckFileManager.writeToBuckFile(rules, buckFile, extraLoadStatements);
+    buckFileManager.stageBuckFile(rules, buckFile, extraLoadStatements);
   }
 
   private static List<Rule> createRules(Project project, boolean integrationTestsEnabled) {
@@ -28,15 +28,22 @@ public class BuckWrapperTask extends DefaultTask {
 
   @Input public Set<String> ignoredDirs;
 
+  @Input public boolean daemon;
+
   private final File wrapper = getProject().file("buckw");
 
   @Inject
   public BuckWrapperTask(
-      String repo, Set<String> watch, Set<String> sourceRoots, Set<String> ignoredDirs) {
+      String repo,
+      Set<String> watch,
+      Set<String> sourceRoots,
+      Set<String> ignoredDirs,
+      boolean daemon) {
     this.repo = repo;
     this.watch = watch;
     this.sourceRoots = sourceRoots;
     this.ignoredDirs = ignoredDirs;
+    this.daemon = daemon;
   }
 
   @TaskAction
@@ -46,6 +53,7 @@ public class BuckWrapperTask extends DefaultTask {
         .watch(toWatchmanMatchers(watch))
         .sourceRoots(toWatchmanMatchers(sourceRoots))
         .ignoredDirs(toWatchmanIgnoredDirs(ignoredDirs))
+        .daemon(daemon)
         .render(wrapper);
     wrapper.setExecutable(true);
 